@@ -0,0 +1,130 @@
+package markov;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Compares saving and loading a chain of the whole corpus in the binary
+ * format of {@link SaveHandler#saveChain(Chain, File)} and the older text
+ * format of {@link SaveHandler#saveChainAsText(Chain, File)}, and writing
+ * and opening a {@link MappedChain}. Loading a mapped chain is timed up to
+ * the first sample. The chain is learned from the notes of each song, as in
+ * {@link NGramBenchmark}, and each loaded chain is checked against it.
+ * <p>
+ * Usage: <code>ChainFileBenchmark [directory] [rounds]</code>, the directory
+ * defaults to Midi/ascii.
+ *
+ * @author Ches Burks
+ *
+ */
+public class ChainFileBenchmark {
+
+	/**
+	 * Runs the benchmark.
+	 *
+	 * @param args the directory to read and the number of timed rounds
+	 * @throws Exception if a file cannot be read or written
+	 */
+	public static void main(String[] args) throws Exception {
+		File dir = new File(args.length > 0 ? args[0] : "Midi/ascii");
+		int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+		Chain chain = new Chain();
+		for (List<String> song : NGramBenchmark.readWords(dir)) {
+			for (int i = 1; i < song.size(); ++i) {
+				chain.learnWordLink(song.get(i - 1), song.get(i));
+			}
+		}
+		File file = File.createTempFile("chain", ".tmp");
+		file.deleteOnExit();
+
+		System.out.printf("%-8s %12s %10s %10s%n", "Format", "bytes",
+				"save ms", "load ms");
+		for (boolean binary : new boolean[] { false, true }) {
+			long save = Long.MAX_VALUE;
+			long load = Long.MAX_VALUE;
+			for (int i = 0; i < rounds; ++i) {
+				long start = System.nanoTime();
+				if (binary) {
+					SaveHandler.saveChain(chain, file);
+				}
+				else {
+					SaveHandler.saveChainAsText(chain, file);
+				}
+				save = Math.min(save, System.nanoTime() - start);
+				Chain loaded = new Chain();
+				start = System.nanoTime();
+				SaveHandler.loadChainStorageToChain(loaded, file);
+				load = Math.min(load, System.nanoTime() - start);
+				ChainFileBenchmark.check(chain, loaded);
+			}
+			System.out.printf("%-8s %,12d %,10.1f %,10.1f%n", binary ? "binary"
+					: "text", file.length(), save / 1e6, load / 1e6);
+		}
+
+		long save = Long.MAX_VALUE;
+		long load = Long.MAX_VALUE;
+		Random random = new Random(1);
+		String first = chain.getKnownWords().get(0).getWord();
+		for (int i = 0; i < rounds; ++i) {
+			long start = System.nanoTime();
+			MappedChain.write(chain, file);
+			save = Math.min(save, System.nanoTime() - start);
+			start = System.nanoTime();
+			MappedChain mapped = MappedChain.open(file);
+			String next = mapped.sample(first, random);
+			load = Math.min(load, System.nanoTime() - start);
+			if (next == null) {
+				throw new IOException("No successor of " + first);
+			}
+			ChainFileBenchmark.check(chain, mapped);
+		}
+		System.out.printf("%-8s %,12d %,10.1f %,10.1f%n", "mapped",
+				file.length(), save / 1e6, load / 1e6);
+		file.delete();
+	}
+
+	private static void check(Chain expected, MappedChain mapped)
+			throws IOException {
+		int transitions = 0;
+		for (Link link : expected.getKnownWords()) {
+			if (!mapped.hasWord(link.getWord())) {
+				throw new IOException("Missing " + link.getWord());
+			}
+			for (Child child : link.getList()) {
+				if (mapped.getCount(link.getWord(), child.getWord()) != child
+						.getOccuranceCount()) {
+					throw new IOException("Wrong count for "
+							+ link.getWord() + " " + child.getWord());
+				}
+				++transitions;
+			}
+		}
+		if (transitions != mapped.getTransitions()) {
+			throw new IOException("Mapped " + mapped.getTransitions() + " of "
+					+ transitions + " transitions");
+		}
+	}
+
+	private static void check(Chain expected, Chain loaded)
+			throws IOException {
+		if (loaded.size() != expected.size()) {
+			throw new IOException("Loaded " + loaded.size() + " of "
+					+ expected.size() + " words");
+		}
+		for (Link link : expected.getKnownWords()) {
+			Link other = loaded.getLink(link.getWord());
+			if (other == null || other.size() != link.size()) {
+				throw new IOException("Wrong link for " + link.getWord());
+			}
+			for (Child child : link.getList()) {
+				if (other.getCount(child.getWord()) != child
+						.getOccuranceCount()) {
+					throw new IOException("Wrong count for "
+							+ link.getWord() + " " + child.getWord());
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,147 @@
+package markov;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * A stress test of learning into one {@link Chain} from many threads at once.
+ * Every thread learns every note pair of the corpus into the same chain, so
+ * the threads fight over the same links as much as they can. Afterwards each
+ * count must be exactly the number of threads times the count learned by a
+ * single thread; any difference is an update that was lost. The same is then
+ * done with each thread learning into a chain of its own, with the chains
+ * merged with {@link Chain#mergeFrom(Chain)} at the end. The speed is printed
+ * for 1 thread and doubling up to the number of processors, or at least 4
+ * threads.
+ * <p>
+ * Usage: <code>ChainStress [directory] [max threads]</code>, the directory
+ * defaults to Midi/ascii. Exits with status 1 if any count is wrong.
+ *
+ * @author Ches Burks
+ *
+ */
+public class ChainStress {
+
+	/**
+	 * Runs the stress test.
+	 *
+	 * @param args the directory to read and the most threads to use
+	 * @throws IOException if the files cannot be read
+	 * @throws InterruptedException if interrupted while waiting for threads
+	 */
+	public static void main(String[] args) throws IOException,
+			InterruptedException {
+		File dir = new File(args.length > 0 ? args[0] : "Midi/ascii");
+		int maxThreads =
+				args.length > 1 ? Integer.parseInt(args[1]) : Math.max(4,
+						Runtime.getRuntime().availableProcessors());
+		List<List<String>> songs = NGramBenchmark.readWords(dir);
+		long pairs = 0;
+		for (List<String> song : songs) {
+			pairs += Math.max(0, song.size() - 1);
+		}
+		Chain expected = new Chain();
+		ChainStress.learn(expected, songs);
+		ChainStress.run(songs, 1, false);// warm up
+
+		ChainStress.run(songs, 1, true);
+
+		boolean failed = false;
+		for (boolean merged : new boolean[] { false, true }) {
+			System.out.println(merged ? "Merged chains:" : "Shared chain:");
+			double single = 0;
+			for (int threads = 1; threads <= maxThreads; threads *= 2) {
+				long start = System.nanoTime();
+				Chain chain = ChainStress.run(songs, threads, merged);
+				long time = System.nanoTime() - start;
+				long lost = ChainStress.compare(expected, chain, threads);
+				double perSecond = pairs * threads / (time / 1e9);
+				if (threads == 1) {
+					single = perSecond;
+				}
+				System.out.printf("%2d threads: %,d pairs in %,d ms, "
+						+ "%,.0f pairs/s (%.2fx), %s%n", threads, pairs
+						* threads, time / 1000000, perSecond, perSecond
+						/ single, lost == 0 ? "no lost updates" : lost
+						+ " counts wrong");
+				failed |= lost != 0;
+			}
+		}
+		if (failed) {
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * Learns the songs into a new chain with the given number of threads,
+	 * each learning all of them, and returns the chain. The threads either
+	 * share the chain or learn into their own chains, which are merged after
+	 * they finish.
+	 */
+	private static Chain run(List<List<String>> songs, int threads,
+			boolean merged) throws InterruptedException {
+		Chain chain = new Chain();
+		Chain[] chains = new Chain[threads];
+		CountDownLatch ready = new CountDownLatch(1);
+		Thread[] workers = new Thread[threads];
+		for (int i = 0; i < threads; ++i) {
+			chains[i] = merged ? new Chain() : chain;
+			Chain target = chains[i];
+			workers[i] = new Thread(() -> {
+				try {
+					ready.await();
+				}
+				catch (InterruptedException e) {
+					return;
+				}
+				ChainStress.learn(target, songs);
+			});
+			workers[i].start();
+		}
+		ready.countDown();
+		for (Thread worker : workers) {
+			worker.join();
+		}
+		if (merged) {
+			for (Chain local : chains) {
+				chain.mergeFrom(local);
+			}
+		}
+		return chain;
+	}
+
+	private static void learn(Chain chain, List<List<String>> songs) {
+		for (List<String> song : songs) {
+			for (int i = 1; i < song.size(); ++i) {
+				chain.learnWordLink(song.get(i - 1), song.get(i));
+			}
+		}
+	}
+
+	/**
+	 * Returns the number of words and counts in the chain that are not the
+	 * expected ones times the number of threads.
+	 */
+	private static long compare(Chain expected, Chain chain, int threads) {
+		long wrong = Math.abs(expected.size() - chain.size());
+		for (Link link : expected.getKnownWords()) {
+			Link other = chain.getLink(link.getWord());
+			if (other == null) {
+				++wrong;
+				continue;
+			}
+			if (other.size() != link.size()) {
+				++wrong;
+			}
+			for (Child child : link.getList()) {
+				if (other.getCount(child.getWord()) != child
+						.getOccuranceCount() * threads) {
+					++wrong;
+				}
+			}
+		}
+		return wrong;
+	}
+}
@@ -0,0 +1,93 @@
+package markov;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Random;
+
+import midi.Harness;
+
+import org.jfugue.pattern.Pattern;
+
+/**
+ * Measures the speed and allocation of {@link Generator} writing a long piece
+ * into each of its outputs, against the way songs used to be generated: a
+ * string built with <code>+=</code> and a known word looked up for every
+ * random restart. The chain is learned from the words read by
+ * {@link NGramBenchmark}. The old way is quadratic in the length, so it is
+ * only run on a shorter piece, and at both lengths for the generator.
+ * <p>
+ * Usage: <code>GeneratorBenchmark [directory] [words]</code>, the directory
+ * defaults to Midi/ascii and the number of words to 100,000.
+ *
+ * @author Ches Burks
+ *
+ */
+public class GeneratorBenchmark {
+	private static final int SHORT_LENGTH = 10000;
+
+	/**
+	 * Runs the benchmarks.
+	 *
+	 * @param args the directory to read and the number of words to generate
+	 * @throws IOException if the files cannot be read
+	 */
+	public static void main(String[] args) throws IOException {
+		File dir = new File(args.length > 0 ? args[0] : "Midi/ascii");
+		int length = args.length > 1 ? Integer.parseInt(args[1]) : 100000;
+		Chain chain = new Chain();
+		for (List<String> song : NGramBenchmark.readWords(dir)) {
+			for (int w = 1; w < song.size(); ++w) {
+				chain.learnWordLink(song.get(w - 1), song.get(w));
+			}
+		}
+		Random random = new Random(1);
+		Generator generator = new Generator(chain, random);
+		int[] ids = new int[length];
+		StringBuilder builder = new StringBuilder();
+		Pattern pattern = new Pattern();
+
+		Harness harness = new Harness(2, 5, 1000);
+		Harness.printHeader();
+		harness.run("old generateSong " + GeneratorBenchmark.SHORT_LENGTH,
+				() -> GeneratorBenchmark.oldGenerate(chain, random,
+						GeneratorBenchmark.SHORT_LENGTH).length());
+		int[] lengths = { GeneratorBenchmark.SHORT_LENGTH, length };
+		for (int words : lengths) {
+			harness.run("Generator int[] " + words,
+					() -> generator.generate(ids, 0, words));
+			harness.run("Generator StringBuilder " + words, () -> {
+				builder.setLength(0);
+				return generator.generate(words, builder);
+			});
+			harness.run("Generator Pattern " + words, () -> {
+				pattern.clear();
+				return generator.generate(words, pattern::add);
+			});
+		}
+		System.out.println(Harness.getSink() == 42 ? "" : " ");
+	}
+
+	/**
+	 * Generates a song the way MidiInterface used to.
+	 */
+	private static String oldGenerate(Chain chain, Random random, int length) {
+		String ret = "";
+		String tmp = GeneratorBenchmark.oldRandomNote(chain, random);
+		ret += tmp;
+		for (int i = 0; i < length; ++i) {
+			Link link = chain.getLink(tmp);
+			tmp = link == null ? null : link.sample(random);
+			if (tmp == null) {
+				tmp = GeneratorBenchmark.oldRandomNote(chain, random);
+			}
+			ret += " " + tmp;
+		}
+		return ret;
+	}
+
+	private static String oldRandomNote(Chain chain, Random random) {
+		int index = random.nextInt(chain.size());
+		return chain.getKnownWords().get(index).getWord();
+	}
+}
@@ -0,0 +1,140 @@
+package markov;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import midi.CorpusLoader;
+import midi.Harness;
+import midi.Song;
+
+/**
+ * Measures the memory and the learning and sampling speed of
+ * {@link NGramChain} for orders 1 to 4 over the whole corpus, to help pick
+ * the order that fits the heap. A first order {@link Chain} of strings is
+ * measured as well for comparison.
+ * <p>
+ * The words are the notes of each song, from
+ * {@link SaveHandler#getNoteWords(Song)}. Memory is the growth of the used
+ * heap after garbage collection, so it is only a rough figure.
+ * <p>
+ * Usage: <code>NGramBenchmark [directory] [rounds]</code>, the directory
+ * defaults to Midi/ascii.
+ *
+ * @author Ches Burks
+ *
+ */
+public class NGramBenchmark {
+	private static final int MAX_ORDER = 4;
+
+	/**
+	 * Runs the benchmark.
+	 *
+	 * @param args the directory to read and the number of timed rounds
+	 * @throws IOException if the files cannot be read
+	 */
+	public static void main(String[] args) throws IOException {
+		File dir = new File(args.length > 0 ? args[0] : "Midi/ascii");
+		int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+		List<List<String>> songs = NGramBenchmark.readWords(dir);
+		long words = 0;
+		for (List<String> song : songs) {
+			words += song.size();
+		}
+		System.out.printf("%,d songs, %,d words%n%n", songs.size(), words);
+
+		System.out.printf("%-10s %10s %12s %10s %12s %10s %14s%n", "Model",
+				"contexts", "transitions", "heap MB", "bytes/trans",
+				"learn ms", "words/s");
+		long best = Long.MAX_VALUE;
+		Chain chain = null;
+		long heap = 0;
+		for (int i = 0; i < rounds; ++i) {
+			chain = null;
+			long before = NGramBenchmark.usedHeap();
+			long start = System.nanoTime();
+			chain = new Chain();
+			for (List<String> song : songs) {
+				for (int w = 1; w < song.size(); ++w) {
+					chain.learnWordLink(song.get(w - 1), song.get(w));
+				}
+			}
+			best = Math.min(best, System.nanoTime() - start);
+			heap = NGramBenchmark.usedHeap() - before;
+		}
+		int transitions = 0;
+		for (Link link : chain.getKnownWords()) {
+			transitions += link.size();
+		}
+		NGramBenchmark.printRow("Chain", chain.size(), transitions, heap,
+				best, words);
+		chain = null;
+
+		NGramChain[] chains = new NGramChain[NGramBenchmark.MAX_ORDER];
+		for (int order = 1; order <= chains.length; ++order) {
+			best = Long.MAX_VALUE;
+			for (int i = 0; i < rounds; ++i) {
+				chains[order - 1] = null;
+				long before = NGramBenchmark.usedHeap();
+				long start = System.nanoTime();
+				NGramChain ngrams = new NGramChain(order);
+				for (List<String> song : songs) {
+					ngrams.learn(song);
+				}
+				best = Math.min(best, System.nanoTime() - start);
+				heap = NGramBenchmark.usedHeap() - before;
+				chains[order - 1] = ngrams;
+			}
+			NGramChain ngrams = chains[order - 1];
+			NGramBenchmark.printRow("order " + order, ngrams.getContexts(),
+					ngrams.getTransitions(), heap, best, words);
+		}
+		System.out.println();
+
+		Harness harness = new Harness(3, 5, 1000);
+		Harness.printHeader();
+		for (NGramChain ngrams : chains) {
+			Random random = new Random(ngrams.getOrder());
+			long[] context = { ngrams.randomContext(random) };
+			harness.run("NGramChain.sample order " + ngrams.getOrder(),
+					() -> {
+						int next = ngrams.sample(context[0], random);
+						if (next < 0) {
+							context[0] = ngrams.randomContext(random);
+							return 0;
+						}
+						context[0] = ngrams.push(context[0], next);
+						return next;
+					});
+		}
+		System.out.println(Harness.getSink() == 42 ? "" : " ");
+	}
+
+	private static void printRow(String model, int contexts, int transitions,
+			long heap, long nanos, long words) {
+		System.out.printf("%-10s %,10d %,12d %,10.1f %,12.1f %,10d %,14.0f%n",
+				model, contexts, transitions, heap / 1e6, (double) heap
+						/ transitions, nanos / 1000000, words / (nanos / 1e9));
+	}
+
+	/**
+	 * Returns the words of each song in the directory.
+	 */
+	static List<List<String>> readWords(File dir) throws IOException {
+		List<List<String>> songs = new ArrayList<>();
+		for (Song song : CorpusLoader.load(dir)) {
+			songs.add(SaveHandler.getNoteWords(song));
+		}
+		return songs;
+	}
+
+	private static long usedHeap() {
+		Runtime runtime = Runtime.getRuntime();
+		for (int i = 0; i < 3; ++i) {
+			System.gc();
+		}
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+}
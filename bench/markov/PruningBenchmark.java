@@ -0,0 +1,95 @@
+package markov;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Measures how much memory each {@link PruningPolicy} saves on the corpus and
+ * how much probability mass it drops for it. Each policy learns the words
+ * read by {@link NGramBenchmark} into a new {@link Chain}, which is pruned
+ * once more at the end, and the row shows the transitions and heap left, the
+ * time taken and the dropped mass. The policies with a budget are checked to
+ * stay within it.
+ * <p>
+ * Usage: <code>PruningBenchmark [directory] [rounds]</code>, the directory
+ * defaults to Midi/ascii.
+ *
+ * @author Ches Burks
+ *
+ */
+public class PruningBenchmark {
+
+	/**
+	 * Runs the benchmark.
+	 *
+	 * @param args the directory to read and the number of timed rounds
+	 * @throws IOException if the files cannot be read
+	 */
+	public static void main(String[] args) throws IOException {
+		File dir = new File(args.length > 0 ? args[0] : "Midi/ascii");
+		int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+		List<List<String>> songs = NGramBenchmark.readWords(dir);
+		int max = Integer.MAX_VALUE;
+		PruningPolicy[] policies =
+				{ PruningPolicy.NONE, new PruningPolicy(2, max, max),
+						new PruningPolicy(3, max, max),
+						new PruningPolicy(1, 16, max),
+						new PruningPolicy(1, 4, max),
+						new PruningPolicy(1, max, 100000),
+						new PruningPolicy(1, max, 50000),
+						new PruningPolicy(1, max, 20000),
+						new PruningPolicy(2, 16, 50000) };
+
+		System.out.printf("%-12s %8s %8s %12s %10s %10s %10s%n", "minCount",
+				"children", "budget", "transitions", "heap MB", "learn ms",
+				"dropped %");
+		boolean failed = false;
+		for (PruningPolicy policy : policies) {
+			long best = Long.MAX_VALUE;
+			long heap = 0;
+			Chain chain = null;
+			for (int i = 0; i < rounds; ++i) {
+				chain = null;
+				long before = PruningBenchmark.usedHeap();
+				long start = System.nanoTime();
+				chain = new Chain(policy);
+				for (List<String> song : songs) {
+					for (int w = 1; w < song.size(); ++w) {
+						chain.learnWordLink(song.get(w - 1), song.get(w));
+					}
+				}
+				chain.prune();
+				best = Math.min(best, System.nanoTime() - start);
+				heap = PruningBenchmark.usedHeap() - before;
+			}
+			long transitions = chain.getTransitions();
+			System.out.printf("%-12s %8s %8s %,12d %,10.1f %,10d %10.2f%n",
+					PruningBenchmark.limit(policy.getMinCount()),
+					PruningBenchmark.limit(policy.getMaxChildren()),
+					PruningBenchmark.limit(policy.getMaxTransitions()),
+					transitions, heap / 1e6, best / 1000000,
+					chain.getDroppedMass() * 100);
+			if (transitions > policy.getMaxTransitions()) {
+				System.out.println("Over budget");
+				failed = true;
+			}
+			chain = null;
+		}
+		if (failed) {
+			System.exit(1);
+		}
+	}
+
+	private static String limit(int value) {
+		return value == Integer.MAX_VALUE ? "-" : Integer.toString(value);
+	}
+
+	private static long usedHeap() {
+		Runtime runtime = Runtime.getRuntime();
+		for (int i = 0; i < 3; ++i) {
+			System.gc();
+		}
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+}
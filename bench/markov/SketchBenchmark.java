@@ -0,0 +1,132 @@
+package markov;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Compares {@link SketchChain} with the exact counts of a {@link Chain} on
+ * the words read by {@link NGramBenchmark}. For each sketch size the row
+ * shows the size of the counters and the time taken to learn, how far the
+ * estimates are above the true counts on average and at most, the part of
+ * the transitions within the error bound, how many of the true heaviest
+ * transitions were kept and the part of the learned mass they hold. An
+ * estimate below its true count is a bug and makes the benchmark fail.
+ * <p>
+ * Usage: <code>SketchBenchmark [directory]</code>, the directory defaults to
+ * Midi/ascii.
+ *
+ * @author Ches Burks
+ *
+ */
+public class SketchBenchmark {
+	private static final double DELTA = 0.01;
+
+	/**
+	 * Runs the benchmark.
+	 *
+	 * @param args the directory to read
+	 * @throws IOException if the files cannot be read
+	 */
+	public static void main(String[] args) throws IOException {
+		File dir = new File(args.length > 0 ? args[0] : "Midi/ascii");
+		List<List<String>> songs = NGramBenchmark.readWords(dir);
+		long start = System.nanoTime();
+		Chain exact = new Chain();
+		SketchBenchmark.learn(exact, songs);
+		long exactNanos = System.nanoTime() - start;
+		List<String> firsts = new ArrayList<>();
+		List<Child> children = new ArrayList<>();
+		for (Link link : exact.getKnownWords()) {
+			for (Child child : link.getList()) {
+				firsts.add(link.getWord());
+				children.add(child);
+			}
+		}
+		System.out.printf("Exact: %,d transitions, learned in %,d ms%n%n",
+				children.size(), exactNanos / 1000000);
+
+		double[] epsilons = { 1e-3, 1e-4, 1e-5 };
+		int[] capacities = { 5000, 20000 };
+		System.out.printf("%-8s %8s %8s %9s %9s %9s %9s %8s %10s %7s%n",
+				"epsilon", "width", "capacity", "sketch KB", "learn ms",
+				"mean err", "max err", "in bound", "top kept", "mass");
+		boolean failed = false;
+		for (double epsilon : epsilons) {
+			for (int capacity : capacities) {
+				start = System.nanoTime();
+				SketchChain sketch =
+						new SketchChain(epsilon, SketchBenchmark.DELTA,
+								capacity);
+				SketchBenchmark.learn(sketch, songs);
+				long nanos = System.nanoTime() - start;
+
+				long bound = sketch.getErrorBound();
+				long errors = 0;
+				long maxError = 0;
+				int inBound = 0;
+				int[] trueCounts = new int[children.size()];
+				for (int i = 0; i < children.size(); ++i) {
+					Child child = children.get(i);
+					trueCounts[i] = child.getOccuranceCount();
+					long error =
+							sketch.getCount(firsts.get(i), child.getWord())
+									- (long) trueCounts[i];
+					if (error < 0) {
+						failed = true;
+					}
+					errors += error;
+					maxError = Math.max(maxError, error);
+					if (error <= bound) {
+						++inBound;
+					}
+				}
+
+				Chain kept = sketch.toChain();
+				int[] sorted = trueCounts.clone();
+				Arrays.sort(sorted);
+				int cutoff = sorted[Math.max(0, sorted.length - capacity)];
+				int heavy = 0;
+				int heavyKept = 0;
+				long mass = 0;
+				for (int i = 0; i < children.size(); ++i) {
+					Link link = kept.getLink(firsts.get(i));
+					String word = children.get(i).getWord();
+					boolean isKept = link != null && link.getCount(word) > 0;
+					if (trueCounts[i] > cutoff) {
+						++heavy;
+						if (isKept) {
+							++heavyKept;
+						}
+					}
+					if (isKept) {
+						mass += trueCounts[i];
+					}
+				}
+				System.out.printf(
+						"%-8.0e %,8d %,8d %,9d %,9d %9.2f %,9d %7.1f%% %9.1f%%"
+								+ " %6.1f%%%n", epsilon, sketch.getWidth(),
+						capacity, sketch.getWidth() * sketch.getDepth() / 256,
+						nanos / 1000000,
+						(double) errors / children.size(), maxError, 100.0
+								* inBound / children.size(), 100.0 * heavyKept
+								/ Math.max(1, heavy), 100.0 * mass
+								/ sketch.getTotalCount());
+			}
+		}
+		if (failed) {
+			System.out.println("An estimate was below its true count");
+			System.exit(1);
+		}
+	}
+
+	private static void learn(ChainLearner learner, List<List<String>> songs) {
+		for (List<String> song : songs) {
+			for (int w = 1; w < song.size(); ++w) {
+				learner.learnWordLink(song.get(w - 1), song.get(w));
+			}
+		}
+	}
+}
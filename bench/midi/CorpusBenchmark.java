@@ -0,0 +1,77 @@
+package midi;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Measures how {@link CorpusLoader} scales with the number of threads. The
+ * corpus is loaded once with each thread count from 1 up to the number of
+ * processors, doubling each time. The diagnostics of the last single
+ * threaded round are printed at the end.
+ * <p>
+ * Usage: <code>CorpusBenchmark [directory] [rounds]</code>, the directory
+ * defaults to Midi/ascii.
+ *
+ * @author Ches Burks
+ *
+ */
+public class CorpusBenchmark {
+
+	/**
+	 * Runs the benchmark.
+	 *
+	 * @param args the directory to read and the number of timed rounds
+	 * @throws IOException if the files cannot be read
+	 */
+	public static void main(String[] args) throws IOException {
+		File dir = new File(args.length > 0 ? args[0] : "Midi/ascii");
+		int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+		long bytes = 0;
+		for (File file : CorpusLoader.listFiles(dir)) {
+			bytes += file.length();
+		}
+		int processors = Runtime.getRuntime().availableProcessors();
+		CorpusBenchmark.time(dir, processors, new ParseDiagnostics());// warm up
+		double single = 0;
+		ParseDiagnostics singleDiagnostics = null;
+		for (int threads = 1; threads <= processors; threads *= 2) {
+			long best = Long.MAX_VALUE;
+			int songs = 0;
+			for (int i = 0; i < rounds; ++i) {
+				ParseDiagnostics diagnostics = new ParseDiagnostics();
+				long start = System.nanoTime();
+				songs = CorpusBenchmark.time(dir, threads, diagnostics);
+				best = Math.min(best, System.nanoTime() - start);
+				if (threads == 1) {
+					singleDiagnostics = diagnostics;
+				}
+			}
+			double mbPerSecond = bytes / 1e6 / (best / 1e9);
+			if (threads == 1) {
+				single = mbPerSecond;
+			}
+			System.out.printf("%2d threads: %d songs in %,d ms, %.1f MB/s "
+					+ "(%.2fx)%n", threads, songs, best / 1000000,
+					mbPerSecond, mbPerSecond / single);
+			if (threads < processors && threads * 2 > processors) {
+				threads = processors / 2;
+			}
+		}
+		System.out.println();
+		singleDiagnostics.print(System.out);
+	}
+
+	private static int time(File dir, int threads,
+			ParseDiagnostics diagnostics) throws IOException {
+		ForkJoinPool pool = new ForkJoinPool(threads);
+		try {
+			List<Song> songs = CorpusLoader.load(dir, pool, diagnostics);
+			return songs.size();
+		}
+		finally {
+			pool.shutdown();
+		}
+	}
+}
@@ -0,0 +1,146 @@
+package midi;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.function.IntSupplier;
+
+/**
+ * A small benchmark harness in the style of JMH, for measuring throughput and
+ * allocation of a single operation. Each benchmark runs a number of warm up
+ * iterations that are thrown away and then a number of measured iterations,
+ * each calling the operation in a loop for a fixed time. The results of the
+ * operation are summed into a field so the JIT cannot remove the work.
+ * <p>
+ * Allocation is measured with the per thread allocation counter of HotSpot
+ * (<code>com.sun.management.ThreadMXBean</code>). It is reported as n/a on
+ * virtual machines that don't have it.
+ *
+ * @author Ches Burks
+ *
+ */
+public class Harness {
+	private static int sink;
+
+	private final int warmupIterations;
+	private final int iterations;
+	private final long iterationNanos;
+	private final com.sun.management.ThreadMXBean allocation;
+
+	/**
+	 * Creates a harness.
+	 *
+	 * @param warmupIterations how many iterations to run before measuring
+	 * @param iterations how many iterations to measure
+	 * @param iterationMillis how long each iteration runs for
+	 */
+	public Harness(int warmupIterations, int iterations, long iterationMillis) {
+		this.warmupIterations = warmupIterations;
+		this.iterations = iterations;
+		this.iterationNanos = iterationMillis * 1000000;
+		ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		if (threads instanceof com.sun.management.ThreadMXBean
+				&& ((com.sun.management.ThreadMXBean) threads)
+						.isThreadAllocatedMemorySupported()) {
+			this.allocation = (com.sun.management.ThreadMXBean) threads;
+			this.allocation.setThreadAllocatedMemoryEnabled(true);
+		}
+		else {
+			this.allocation = null;
+		}
+	}
+
+	/**
+	 * Prints the header of the result table.
+	 */
+	public static void printHeader() {
+		System.out.printf("%-40s %16s %10s %14s %12s%n", "Benchmark",
+				"ops/s", "error", "bytes/op", "alloc MB/s");
+	}
+
+	/**
+	 * Runs and measures the operation, then prints a row of results.
+	 *
+	 * @param name the name to print for the benchmark
+	 * @param operation the operation to measure
+	 */
+	public void run(String name, IntSupplier operation) {
+		for (int i = 0; i < this.warmupIterations; ++i) {
+			this.iteration(operation, null);
+		}
+		double[] throughput = new double[this.iterations];
+		long operations = 0;
+		long bytes = 0;
+		long time = 0;
+		long[] measured = new long[3];
+		for (int i = 0; i < this.iterations; ++i) {
+			this.iteration(operation, measured);
+			operations += measured[0];
+			time += measured[1];
+			bytes += measured[2];
+			throughput[i] = measured[0] * 1e9 / measured[1];
+		}
+		double mean = operations * 1e9 / time;
+		double variance = 0;
+		for (double value : throughput) {
+			variance += (value - mean) * (value - mean);
+		}
+		double error =
+				this.iterations > 1 ? Math.sqrt(variance
+						/ (this.iterations - 1)) : 0;
+		if (this.allocation == null) {
+			System.out.printf("%-40s %,16.1f %,10.1f %14s %12s%n", name, mean,
+					error, "n/a", "n/a");
+		}
+		else {
+			System.out.printf("%-40s %,16.1f %,10.1f %,14.0f %,12.1f%n", name,
+					mean, error, (double) bytes / operations, bytes * 1e3
+							/ time);
+		}
+	}
+
+	/**
+	 * Calls the operation until the iteration time has passed.
+	 *
+	 * @param operation the operation to call
+	 * @param measured where to store the operation count, time and bytes
+	 *            allocated, or null for a warm up
+	 */
+	private void iteration(IntSupplier operation, long[] measured) {
+		long threadId = Thread.currentThread().getId();
+		long startBytes = this.allocated(threadId);
+		long start = System.nanoTime();
+		long end = start + this.iterationNanos;
+		long count = 0;
+		int total = 0;
+		long now;
+		do {
+			total += operation.getAsInt();
+			++count;
+			now = System.nanoTime();
+		} while (now < end);
+		long bytes = this.allocated(threadId) - startBytes;
+		Harness.sink += total;
+		if (measured != null) {
+			measured[0] = count;
+			measured[1] = now - start;
+			measured[2] = bytes;
+		}
+	}
+
+	private long allocated(long threadId) {
+		if (this.allocation == null) {
+			return 0;
+		}
+		return this.allocation.getThreadAllocatedBytes(threadId);
+	}
+
+	/**
+	 * Returns a value depending on every result seen, so the results are
+	 * never unused.
+	 *
+	 * @return the sum of all results
+	 */
+	public static int getSink() {
+		return Harness.sink;
+	}
+}
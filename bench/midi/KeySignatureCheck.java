@@ -0,0 +1,108 @@
+package midi;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.MetaMessage;
+import javax.sound.midi.MidiEvent;
+import javax.sound.midi.MidiSystem;
+import javax.sound.midi.Sequence;
+import javax.sound.midi.Track;
+
+/**
+ * Checks that every key signature a standard MIDI file can hold is kept by
+ * {@link MidiFileParser}, with the right sharps and mode, and comes back the
+ * same after the song is written and read the way the {@link SongCache} does.
+ * Keys such as G major and G# minor are not accepted by the text grammar, so
+ * they are the ones this is mostly about. A file with one key signature per
+ * bar is written to a temporary file and parsed. Any key that does not match
+ * is printed and makes the check fail.
+ * <p>
+ * Usage: <code>KeySignatureCheck</code>
+ *
+ * @author Ches Burks
+ *
+ */
+public class KeySignatureCheck {
+	private static final int DIVISION = 96;
+
+	/**
+	 * Runs the check.
+	 *
+	 * @param args not used
+	 * @throws IOException if the file cannot be written or read
+	 * @throws InvalidMidiDataException if the events cannot be created
+	 */
+	public static void main(String[] args) throws IOException,
+			InvalidMidiDataException {
+		Sequence sequence = new Sequence(Sequence.PPQ,
+				KeySignatureCheck.DIVISION);
+		Track track = sequence.createTrack();
+		int tick = 0;
+		for (int minor = 0; minor < 2; ++minor) {
+			for (int sharps = -7; sharps <= 7; ++sharps) {
+				byte[] data = { (byte) sharps, (byte) minor };
+				track.add(new MidiEvent(new MetaMessage(0x59, data,
+						data.length), tick));
+				tick += 4 * KeySignatureCheck.DIVISION;
+			}
+		}
+		File file = File.createTempFile("keys", ".mid");
+		Song song;
+		try {
+			MidiSystem.write(sequence, 0, file);
+			song = MidiFileParser.parse(file, LineFilter.ALL,
+					new ParseDiagnostics());
+		}
+		finally {
+			file.delete();
+		}
+		if (song == null) {
+			System.out.println("The file could not be parsed");
+			System.exit(1);
+		}
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (DataOutputStream out = new DataOutputStream(bytes)) {
+			song.write(out);
+		}
+		Song cached = Song.read(ByteBuffer.wrap(bytes.toByteArray()));
+
+		int keys = 0;
+		int failed = 0;
+		for (int i = 0; i < song.size(); ++i) {
+			if (song.getOpcode(i) != Opcode.KEY) {
+				continue;
+			}
+			int sharps = keys % 15 - 7;
+			int minor = keys / 15;
+			++keys;
+			String name = LineScanner.MAJOR_KEYS[sharps + 7] + " major";
+			if (minor == 1) {
+				name = LineScanner.MINOR_KEYS[sharps + 7] + " minor";
+			}
+			name = "Key " + name;
+			if (song.getFirstOperand(i) != sharps
+					|| song.getSecondOperand(i) != minor
+					|| !song.getInstruction(i).equals(name)
+					|| cached.getOpcode(i) != Opcode.KEY
+					|| cached.getFirstOperand(i) != sharps
+					|| cached.getSecondOperand(i) != minor
+					|| !cached.getInstruction(i).equals(name)) {
+				System.out.println("Wrong key: " + song.getInstruction(i)
+						+ " (" + song.getFirstOperand(i) + ", "
+						+ song.getSecondOperand(i) + "), expected " + name
+						+ " (" + sharps + ", " + minor + ")");
+				++failed;
+			}
+		}
+		System.out.println("Kept " + keys + " of 30 key signatures, " + failed
+				+ " wrong");
+		if (keys != 30 || failed > 0) {
+			System.exit(1);
+		}
+	}
+}
@@ -0,0 +1,139 @@
+package midi;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.regex.Matcher;
+
+/**
+ * Compares how many lines per second the old regex based line parsing and
+ * the {@link LineScanner} based {@link Line#process()} can handle. All lines
+ * of the given directory are read into memory first so only parsing is timed.
+ * <p>
+ * Usage: <code>LineBenchmark [directory] [rounds]</code>, the directory
+ * defaults to Midi/ascii.
+ *
+ * @author Ches Burks
+ *
+ */
+public class LineBenchmark {
+
+	private static int sink;
+
+	/**
+	 * Runs the benchmark.
+	 *
+	 * @param args the directory to read and the number of timed rounds
+	 * @throws IOException if the files cannot be read
+	 */
+	public static void main(String[] args) throws IOException {
+		File dir = new File(args.length > 0 ? args[0] : "Midi/ascii");
+		int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+		ArrayList<String> lines = LineBenchmark.readLines(dir);
+		System.out.println("Loaded " + lines.size() + " lines from " + dir);
+
+		// warm up both paths before timing anything
+		LineBenchmark.runRegex(lines);
+		LineBenchmark.runScanner(lines);
+
+		for (int i = 0; i < rounds; ++i) {
+			long start = System.nanoTime();
+			LineBenchmark.runRegex(lines);
+			long regexTime = System.nanoTime() - start;
+			start = System.nanoTime();
+			LineBenchmark.runScanner(lines);
+			long scanTime = System.nanoTime() - start;
+			System.out.printf("round %d: regex %,.0f lines/s, "
+					+ "scanner %,.0f lines/s (%.1fx)%n", i + 1,
+					LineBenchmark.perSecond(lines.size(), regexTime),
+					LineBenchmark.perSecond(lines.size(), scanTime),
+					(double) regexTime / scanTime);
+		}
+		System.out.println(LineBenchmark.sink == 42 ? "" : " ");
+	}
+
+	private static double perSecond(int count, long nanos) {
+		return count * 1e9 / nanos;
+	}
+
+	private static ArrayList<String> readLines(File dir) throws IOException {
+		ArrayList<String> lines = new ArrayList<>();
+		for (File file : CorpusLoader.listFiles(dir)) {
+			try (BufferedReader reader =
+					new BufferedReader(new FileReader(file))) {
+				String line = reader.readLine();// header
+				while ((line = reader.readLine()) != null) {
+					if (!line.isEmpty() && !line.startsWith("#")) {
+						lines.add(line);
+					}
+				}
+			}
+		}
+		return lines;
+	}
+
+	private static void runScanner(ArrayList<String> lines) {
+		int total = 0;
+		for (String data : lines) {
+			Line line = new Line(data);
+			line.process();
+			total += line.getBar() + line.getInstruction().length();
+		}
+		LineBenchmark.sink += total;
+	}
+
+	private static void runRegex(ArrayList<String> lines) {
+		int total = 0;
+		for (String data : lines) {
+			total += LineBenchmark.regexProcess(data);
+		}
+		LineBenchmark.sink += total;
+	}
+
+	/**
+	 * The body of the old, regex based, Line.process().
+	 */
+	private static int regexProcess(String data) {
+		if (!data.matches(Line.regexLine)) {
+			return 0;
+		}
+		String sBar = LineBenchmark.find(Line.barPattern.matcher(data), data);
+		String sCrotchet =
+				LineBenchmark.find(Line.crotchetPattern.matcher(data), data);
+		String sTrack =
+				LineBenchmark.find(Line.trackPattern.matcher(data), data);
+		String sChannel =
+				LineBenchmark.find(Line.channelPattern.matcher(data), data);
+		String sInstruction =
+				LineBenchmark.find(Line.instructionPattern.matcher(data), data);
+
+		int bar = Integer.parseInt(sBar.replaceAll("BA +", ""));
+		float crotchet =
+				LineBenchmark.getNumberFromFrac(sCrotchet.replaceAll("CR +",
+						""));
+		int track = Integer.parseInt(sTrack.replaceAll("TR +", ""));
+		int channel = Integer.parseInt(sChannel.replaceAll("CH +", ""));
+		return bar + (int) crotchet + track + channel + sInstruction.length();
+	}
+
+	private static String find(Matcher matcher, String data) {
+		matcher.find();
+		return data.substring(matcher.start(), matcher.end());
+	}
+
+	private static float getNumberFromFrac(String frac) {
+		String[] parts = frac.split("\\+");
+		String[] fr2 = parts[parts.length - 1].split("/");
+		int top = Integer.parseInt(fr2[0]);
+		int bottom = 1;
+		if (fr2.length == 2) {
+			bottom = Integer.parseInt(fr2[1]);
+			if (parts.length == 2) {
+				top += Integer.parseInt(parts[0]) * bottom;
+			}
+		}
+		return ((float) top) / ((float) bottom);
+	}
+}
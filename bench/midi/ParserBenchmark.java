@@ -0,0 +1,115 @@
+package midi;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+
+import markov.SaveHandler;
+
+/**
+ * Measures the throughput and allocation of each step of the midi parsing
+ * path using {@link Harness}: {@link Line#process()} and
+ * {@link Line#isValidLine(String)} on single lines, and
+ * {@link AsciiParser#parse(File)}, {@link AsciiParser#parseMapped(File)} and
+ * {@link SaveHandler#loadSong(File)} on the smallest, median and largest
+ * files of the directory. Loading songs goes through the song cache, which is
+ * filled before timing.
+ * <p>
+ * Usage:
+ * <code>ParserBenchmark [directory] [iterations] [iteration ms]</code>, the
+ * directory defaults to Midi/ascii.
+ *
+ * @author Ches Burks
+ *
+ */
+public class ParserBenchmark {
+
+	/**
+	 * Runs the benchmarks.
+	 *
+	 * @param args the directory to read, the number of measured iterations
+	 *            and the length of an iteration
+	 * @throws IOException if the files cannot be read
+	 */
+	public static void main(String[] args) throws IOException {
+		File dir = new File(args.length > 0 ? args[0] : "Midi/ascii");
+		int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+		long millis = args.length > 2 ? Long.parseLong(args[2]) : 1000;
+		Harness harness = new Harness(3, iterations, millis);
+
+		File[] files = ParserBenchmark.validFiles(dir);
+		if (files.length == 0) {
+			throw new IOException("No songs in " + dir);
+		}
+		File[] chosen =
+				{ files[0], files[files.length / 2], files[files.length - 1] };
+		String[] sizes = { "small", "median", "large" };
+		for (int i = 0; i < chosen.length; ++i) {
+			System.out.printf("%-6s %s (%,d bytes)%n", sizes[i],
+					chosen[i].getName(), chosen[i].length());
+		}
+		String[] lines = ParserBenchmark.readLines(chosen[1]);
+		System.out.println();
+
+		Harness.printHeader();
+		int[] next = new int[1];
+		harness.run("Line.process", () -> {
+			Line line = new Line(lines[next[0]++ % lines.length]);
+			line.process();
+			return line.getBar();
+		});
+		harness.run("Line.isValidLine", () -> Line
+				.isValidLine(lines[next[0]++ % lines.length]) ? 1 : 0);
+		for (int i = 0; i < chosen.length; ++i) {
+			File file = chosen[i];
+			harness.run("AsciiParser.parse " + sizes[i], () -> AsciiParser
+					.parse(file).size());
+		}
+		for (int i = 0; i < chosen.length; ++i) {
+			File file = chosen[i];
+			harness.run("AsciiParser.parseMapped " + sizes[i],
+					() -> AsciiParser.parseMapped(file).size());
+		}
+		for (int i = 0; i < chosen.length; ++i) {
+			File file = chosen[i];
+			SaveHandler.loadSong(file);// fill the cache
+			harness.run("SaveHandler.loadSong " + sizes[i], () -> SaveHandler
+					.loadSong(file).size());
+		}
+		System.out.println(Harness.getSink() == 42 ? "" : " ");
+	}
+
+	/**
+	 * Returns the files in the directory that parse to a song with at least
+	 * one line, smallest first.
+	 */
+	private static File[] validFiles(File dir) throws IOException {
+		ArrayList<File> valid = new ArrayList<>();
+		for (File file : CorpusLoader.listFiles(dir)) {
+			Song song = AsciiParser.parse(file);
+			if (song != null && song.size() > 0) {
+				valid.add(file);
+			}
+		}
+		File[] files = valid.toArray(new File[valid.size()]);
+		Arrays.sort(files, Comparator.comparingLong(File::length));
+		return files;
+	}
+
+	private static String[] readLines(File file) throws IOException {
+		ArrayList<String> lines = new ArrayList<>();
+		try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+			String line = reader.readLine();// header
+			while ((line = reader.readLine()) != null) {
+				if (!line.isEmpty() && !line.startsWith("#")) {
+					lines.add(line);
+				}
+			}
+		}
+		return lines.toArray(new String[lines.size()]);
+	}
+}
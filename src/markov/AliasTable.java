@@ -0,0 +1,71 @@
+package markov;
+
+/**
+ * Builds alias tables for Walker's alias method of picking a random item with
+ * a given weight. A table gives each of the n items a column of height
+ * weight * n / total, and columns shorter than 1 are filled up from a column
+ * taller than 1, which becomes the alias of the short column. To pick an item
+ * a column is chosen at random, then either the column's item, with a chance
+ * of its height, or its alias. The tables are built with Vose's method.
+ *
+ * @author Ches Burks
+ *
+ */
+final class AliasTable {
+
+	private AliasTable() {}
+
+	/**
+	 * Builds the alias table for the weights from start to end. The chance of
+	 * keeping each item and the index of its alias are written to the same
+	 * indices of chance and alias. Aliases are indices into the whole array,
+	 * not from start.
+	 *
+	 * @param weights the weights of the items, all greater than 0
+	 * @param start the index of the first item
+	 * @param end the index after the last item
+	 * @param chance where to store the chance of keeping each item
+	 * @param alias where to store the alias of each item
+	 */
+	static void build(int[] weights, int start, int end, double[] chance,
+			int[] alias) {
+		int n = end - start;
+		long total = 0;
+		for (int i = start; i < end; ++i) {
+			total += weights[i];
+		}
+		int[] small = new int[n];
+		int[] large = new int[n];
+		int smallCount = 0;
+		int largeCount = 0;
+		for (int i = start; i < end; ++i) {
+			chance[i] = (double) weights[i] * n / total;
+			alias[i] = i;
+			if (chance[i] < 1) {
+				small[smallCount++] = i;
+			}
+			else {
+				large[largeCount++] = i;
+			}
+		}
+		while (smallCount > 0 && largeCount > 0) {
+			int shorter = small[--smallCount];
+			int taller = large[--largeCount];
+			alias[shorter] = taller;
+			chance[taller] -= 1 - chance[shorter];
+			if (chance[taller] < 1) {
+				small[smallCount++] = taller;
+			}
+			else {
+				large[largeCount++] = taller;
+			}
+		}
+		// anything left over is only off from 1 by rounding
+		while (smallCount > 0) {
+			chance[small[--smallCount]] = 1;
+		}
+		while (largeCount > 0) {
+			chance[large[--largeCount]] = 1;
+		}
+	}
+}
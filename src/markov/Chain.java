@@ -1,85 +1,297 @@
 package markov;
 
+import java.util.ArrayList;
 import java.util.Collections;
-import java.util.HashSet;
-import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
- * Holds a list of {@link Link links}.
+ * Holds a list of {@link Link links}. Links are indexed by their word, so
+ * learning a link and finding the link for a word take the same time no
+ * matter how many words are known.
+ * <p>
+ * Many threads can learn into the same chain at once. The index is a
+ * concurrent hash map and each {@link Link} locks itself while it counts, so
+ * threads learning different words don't wait for each other and no counts
+ * are lost. The list of known words is locked only when a new word is added.
+ * Reading the list returned by {@link #getKnownWords()} while other threads
+ * are still learning is not safe.
+ * <p>
+ * A chain made with a {@link PruningPolicy} bounds its own size while it
+ * learns. Each link prunes itself down to the most children allowed when it
+ * reaches twice that many, and the whole chain is pruned each time the number
+ * of transitions reaches the sweep limit: the budget of the policy if it has
+ * one, otherwise twice the number left after the last sweep. A sweep drops
+ * transitions below the minimum count, and if the chain is over budget it
+ * drops the transitions with the lowest counts until it is down to three
+ * quarters of the budget. A transition has to reach the minimum count between
+ * two sweeps to be kept, so a high minimum count loses rare words that a
+ * prune at the end would have kept.
  *
  * @author Ches Burks
  *
  */
-public class Chain {
+public class Chain implements ChainLearner {
+	/**
+	 * The sweep limit of a chain without a budget, before the first sweep
+	 */
+	private static final int MIN_SWEEP_LIMIT = 1 << 16;
+	/**
+	 * One more than the highest count told apart when choosing what to drop
+	 * to stay in budget
+	 */
+	private static final int HISTOGRAM_SIZE = 1024;
+
 	/**
 	 * A list of words that are known to the program
 	 */
-	private LinkedList<Link> knownWords = new LinkedList<>();
-	private HashSet<String> words = new HashSet<>();
+	private ArrayList<Link> knownWords = new ArrayList<>();
+	/**
+	 * The links of the known words, by word
+	 */
+	private ConcurrentHashMap<String, Link> links = new ConcurrentHashMap<>();
+	/**
+	 * If the list of known words is sorted by word
+	 */
+	private boolean sorted = true;
+	/**
+	 * The limits on what is kept
+	 */
+	private final PruningPolicy policy;
+	/**
+	 * About how many transitions the chain holds, only counted when pruning.
+	 * Learning threads add to it while a sweep runs, so it is counted again
+	 * by each sweep.
+	 */
+	private final AtomicInteger transitions = new AtomicInteger();
+	/**
+	 * The number of transitions that starts a sweep
+	 */
+	private volatile int sweepLimit;
+	/**
+	 * Locked while the chain is pruned
+	 */
+	private final Object sweepLock = new Object();
+
+	/**
+	 * Creates an empty chain that keeps everything it learns.
+	 */
+	public Chain() {
+		this(PruningPolicy.NONE);
+	}
+
+	/**
+	 * Creates an empty chain that prunes itself with the given policy as it
+	 * learns.
+	 *
+	 * @param policy the limits on what is kept
+	 */
+	public Chain(PruningPolicy policy) {
+		this.policy = policy;
+		this.sweepLimit = Chain.firstSweepLimit(policy);
+	}
 
 	/**
 	 * Stores the link between the first and second word in the list of known
 	 * words. A word is any string delimited by one or more whitespace
-	 * characters, typically a single space. Sorts the list if a new link is
-	 * inserted.
+	 * characters, typically a single space.
 	 *
 	 * @param first the first word
 	 * @param second the word right after the first word.
 	 */
+	@Override
 	public void learnWordLink(String first, String second) {
-		boolean learned = false;
-		for (Link lnk : this.knownWords) {
-			if (lnk.getWord().equals(first)) {
-				/*
-				 * case sensitive so that different capitalizations are kept as
-				 * different entries.
-				 */
-				lnk.learnWord(second);
-				learned = true;
-			}
-			if (learned) {
-				break;
-			}
-		}
-		if (!learned) {
+		/*
+		 * case sensitive so that different capitalizations are kept as
+		 * different entries.
+		 */
+		Link link = this.links.get(first);
+		if (link == null) {
 			/*
 			 * The first word has not been seen before.
 			 */
-			Link newLink = new Link(first);
-			newLink.learnWord(second);
-			this.knownWords.add(newLink);
-			this.words.add(first);
+			link = this.insert(new Link(first));
+		}
+		if (!this.policy.isPruning()) {
+			link.learnWord(second);
+			return;
+		}
+		int added = link.learnWord(second, this.policy.getMaxChildren());
+		if (added != 0
+				&& this.transitions.addAndGet(added) >= this.sweepLimit) {
+			synchronized (this.sweepLock) {
+				if (this.transitions.get() >= this.sweepLimit) {
+					this.prune();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Prunes every link with the policy of the chain: drops transitions below
+	 * the minimum count, then the children past the most allowed per link,
+	 * then, if the chain has reached its budget, the transitions with the
+	 * lowest counts until it is at three quarters of it. Links left without
+	 * children are kept, so their words are still known. This is done while
+	 * learning when the chain grows past its sweep limit, and can be called at
+	 * the end to prune the children that were learned since.
+	 */
+	public void prune() {
+		synchronized (this.sweepLock) {
+			Link[] all;
+			synchronized (this.knownWords) {
+				all = this.knownWords.toArray(new Link[this.knownWords.size()]);
+			}
+			int minCount = this.policy.getMinCount();
+			int budget = this.policy.getMaxTransitions();
+			if (budget < Integer.MAX_VALUE) {
+				int[] histogram = new int[Chain.HISTOGRAM_SIZE];
+				long total = 0;
+				for (Link link : all) {
+					link.countHistogram(histogram);
+				}
+				for (int count : histogram) {
+					total += count;
+				}
+				long target = total >= budget ? budget - budget / 4 : total;
+				int count = 0;
+				while (total > target && count < histogram.length) {
+					total -= histogram[count];
+					++count;
+				}
+				minCount = Math.max(minCount, count);
+			}
+			int left = 0;
+			for (Link link : all) {
+				link.prune(minCount, this.policy.getMaxChildren());
+				left += link.size();
+			}
+			this.transitions.set(left);
+			if (budget == Integer.MAX_VALUE) {
+				this.sweepLimit =
+						(int) Math.min(Integer.MAX_VALUE, Math.max(
+								Chain.MIN_SWEEP_LIMIT, 2L * left));
+			}
+			else {
+				// counts past the histogram could not be dropped
+				this.sweepLimit = Math.max(budget, left + budget / 4);
+			}
+		}
+	}
+
+	/**
+	 * Returns the pruning policy of the chain.
+	 *
+	 * @return the limits on what is kept
+	 */
+	public PruningPolicy getPolicy() {
+		return this.policy;
+	}
+
+	/**
+	 * Returns the number of transitions, the sum of the number of children of
+	 * every link.
+	 *
+	 * @return the number of transitions kept
+	 */
+	public long getTransitions() {
+		long total = 0;
+		for (Link link : this.links.values()) {
+			total += link.size();
+		}
+		return total;
+	}
+
+	/**
+	 * Returns the sum of the counts of the transitions that were pruned.
+	 *
+	 * @return the count dropped
+	 */
+	public long getDroppedCount() {
+		long total = 0;
+		for (Link link : this.links.values()) {
+			total += link.getDroppedCount();
+		}
+		return total;
+	}
+
+	/**
+	 * Returns the part of everything learned that was dropped by pruning:
+	 * the count dropped over the count learned, kept or not. As each word is
+	 * picked in proportion to its count, this is also the chance of a
+	 * transition of the unpruned chain being one this chain no longer has.
+	 *
+	 * @return the dropped probability mass, from 0 to 1
+	 */
+	public double getDroppedMass() {
+		long kept = 0;
+		long dropped = 0;
+		for (Link link : this.links.values()) {
+			kept += link.getTotalCount();
+			dropped += link.getDroppedCount();
 		}
+		if (kept + dropped == 0) {
+			return 0;
+		}
+		return (double) dropped / (kept + dropped);
 	}
 
 	/**
 	 * Clears the lists
 	 */
 	public void clear() {
-		this.words.clear();
-		this.knownWords.clear();
+		synchronized (this.knownWords) {
+			this.links.clear();
+			this.knownWords.clear();
+			this.sorted = true;
+		}
+		this.transitions.set(0);
+		this.sweepLimit = Chain.firstSweepLimit(this.policy);
 	}
 
 	/**
-	 * Adds the given link to the chain
+	 * Adds the given link to the chain. If there is already a link for its
+	 * word, the children are added to that link instead, replacing the counts
+	 * of children it already has. Use {@link #mergeFrom(Chain)} to sum
+	 * counts.
 	 *
 	 * @param newLink the link to add
 	 */
 	public void add(Link newLink) {
-		if (this.words.contains(newLink.getWord())) {
-			// way faster than looping through thelinked list every add
-			for (Link link : this.knownWords) {
-				if (link.getWord().equals(newLink.getWord())) {
-					for (Child child : newLink.getList()) {
-						link.add(child);
-					}
-					return;
-				}
+		Link link = this.links.get(newLink.getWord());
+		if (link == null) {
+			link = this.insert(newLink);
+			if (link == newLink) {
+				return;
 			}
 		}
-		this.knownWords.add(newLink);
-		this.words.add(newLink.getWord());
+		for (Child child : newLink.getList()) {
+			link.add(child);
+		}
+	}
 
+	/**
+	 * Adds the counts of every link in the other chain to this chain, summing
+	 * the counts of children both chains have. This takes time in proportion
+	 * to the size of the other chain, so chains learned separately, for
+	 * example one per thread, can be combined at the end. The other chain is
+	 * not changed and shares no links with this one afterwards. If this chain
+	 * has a pruning policy, it is pruned afterwards.
+	 *
+	 * @param other the chain to add
+	 */
+	public void mergeFrom(Chain other) {
+		for (Link otherLink : other.links.values()) {
+			Link link = this.links.get(otherLink.getWord());
+			if (link == null) {
+				link = this.insert(new Link(otherLink.getWord()));
+			}
+			link.mergeFrom(otherLink);
+		}
+		if (this.policy.isPruning()) {
+			this.prune();
+		}
 	}
 
 	/**
@@ -89,22 +301,93 @@ public class Chain {
 	 * @return true if the word exists
 	 */
 	public boolean hasWord(String word) {
-		return this.words.contains(word);
+		return this.links.containsKey(word);
+	}
+
+	/**
+	 * Returns the link for the given word.
+	 *
+	 * @param word the word
+	 * @return the link storing the words that follow it, or null if the word
+	 *         has not been encountered
+	 */
+	public Link getLink(String word) {
+		return this.links.get(word);
+	}
+
+	@Override
+	public int getCount(String first, String second) {
+		Link link = this.links.get(first);
+		return link == null ? 0 : link.getCount(second);
+	}
+
+	/**
+	 * Returns this chain, which already holds the exact counts.
+	 *
+	 * @return this chain
+	 */
+	@Override
+	public Chain toChain() {
+		return this;
+	}
+
+	/**
+	 * Returns the number of known words.
+	 *
+	 * @return how many words have a link
+	 */
+	public int size() {
+		synchronized (this.knownWords) {
+			return this.knownWords.size();
+		}
 	}
 
 	/**
 	 * Sorts the list. called after loading from file.
 	 */
 	public void sortList() {
-		Collections.sort(this.knownWords);
+		synchronized (this.knownWords) {
+			if (!this.sorted) {
+				Collections.sort(this.knownWords);
+				this.sorted = true;
+			}
+		}
 	}
 
 	/**
-	 * Returns the linked list of known words.
+	 * Returns the list of known words, sorted by word. The list is sorted
+	 * here if words were added since it was last sorted, and can't be
+	 * modified.
 	 *
 	 * @return the known words
 	 */
-	public LinkedList<Link> getKnownWords() {
-		return this.knownWords;
+	public List<Link> getKnownWords() {
+		this.sortList();
+		return Collections.unmodifiableList(this.knownWords);
+	}
+
+	private static int firstSweepLimit(PruningPolicy policy) {
+		int budget = policy.getMaxTransitions();
+		return budget < Integer.MAX_VALUE ? budget : Chain.MIN_SWEEP_LIMIT;
+	}
+
+	/**
+	 * Adds the link for a word that was not in the index, unless another
+	 * thread added one first, and returns the link that ended up in the
+	 * index.
+	 */
+	private Link insert(Link link) {
+		synchronized (this.knownWords) {
+			Link existing = this.links.putIfAbsent(link.getWord(), link);
+			if (existing != null) {
+				return existing;
+			}
+			int size = this.knownWords.size();
+			if (size > 0 && this.knownWords.get(size - 1).compareTo(link) > 0) {
+				this.sorted = false;
+			}
+			this.knownWords.add(link);
+			return link;
+		}
 	}
 }
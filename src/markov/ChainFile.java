@@ -0,0 +1,269 @@
+package markov;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Reads and writes chains in a compact binary form. A file holds a magic
+ * number and version, then a table of every word, then the links. The words
+ * of the links come first in the table, in sorted order, followed by the words
+ * that only follow others. The links are written in the same order as their
+ * words, each as the number of children and the id and count of each child.
+ * All numbers after the version are unsigned varints, 7 bits a byte with the
+ * high bit set on all but the last byte.
+ *
+ * @author Ches Burks
+ *
+ */
+final class ChainFile {
+	/**
+	 * The first four bytes of every chain file.
+	 */
+	static final int MAGIC = 0x4D4B4348;// "MKCH"
+	/**
+	 * Increased whenever the layout of a chain file changes.
+	 */
+	private static final int VERSION = 1;
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	private final FileChannel channel;
+	private final ByteBuffer buffer;
+	private final CRC32 crc = new CRC32();
+
+	private ChainFile(FileChannel channel) {
+		this.channel = channel;
+		this.buffer = ByteBuffer.allocate(ChainFile.BUFFER_SIZE);
+	}
+
+	/**
+	 * Checks if the file starts with the magic number of a chain file.
+	 *
+	 * @param location the file to check
+	 * @return true if the file is a binary chain file
+	 * @throws IOException if the file cannot be read
+	 */
+	static boolean isChainFile(File location) throws IOException {
+		try (RandomAccessFile raf = new RandomAccessFile(location, "r")) {
+			return raf.length() >= 4 && raf.readInt() == ChainFile.MAGIC;
+		}
+	}
+
+	/**
+	 * Writes the chain to the file, replacing what was there. The chain is
+	 * written to a temporary file and then moved into place, so if writing
+	 * fails the old file is left as it was.
+	 *
+	 * @param chain the chain to write
+	 * @param location the file to write to
+	 * @return the CRC32 of the file written, as {@link #checksum(File)} would
+	 *         find it
+	 * @throws IOException if the file cannot be written
+	 */
+	static long write(Chain chain, File location) throws IOException {
+		List<Link> links = chain.getKnownWords();
+		SymbolTable symbols = new SymbolTable();
+		int transitions = 0;
+		for (Link link : links) {
+			symbols.add(link.getWord());
+			transitions += link.getList().size();
+		}
+		int[] childIds = new int[transitions];
+		int index = 0;
+		for (Link link : links) {
+			for (Child child : link.getList()) {
+				childIds[index++] = symbols.add(child.getWord());
+			}
+		}
+
+		File directory = location.getAbsoluteFile().getParentFile();
+		File temp =
+				File.createTempFile(location.getName(), ".tmp", directory);
+		long checksum;
+		try {
+			try (RandomAccessFile raf = new RandomAccessFile(temp, "rw");
+					FileChannel channel = raf.getChannel()) {
+				ChainFile out = new ChainFile(channel);
+				out.buffer.putInt(ChainFile.MAGIC);
+				out.buffer.putInt(ChainFile.VERSION);
+				out.writeVarint(symbols.size());
+				for (int id = 0; id < symbols.size(); ++id) {
+					out.writeBytes(symbols.getSymbol(id).getBytes(
+							StandardCharsets.UTF_8));
+				}
+				out.writeVarint(links.size());
+				index = 0;
+				for (Link link : links) {
+					List<Child> children = link.getList();
+					out.writeVarint(children.size());
+					for (Child child : children) {
+						out.writeVarint(childIds[index++]);
+						out.writeVarint(child.getOccuranceCount());
+					}
+				}
+				out.flush();
+				channel.force(false);
+				checksum = out.crc.getValue();
+			}
+			Files.move(temp.toPath(), location.toPath(),
+					StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+			temp = null;
+		}
+		finally {
+			if (temp != null) {
+				temp.delete();
+			}
+		}
+		return checksum;
+	}
+
+	/**
+	 * Reads a chain file into the chain, the same way
+	 * {@link Chain#add(Link)} adds each link.
+	 *
+	 * @param chain the chain to add to
+	 * @param location the file to read
+	 * @throws IOException if the file cannot be read or is not valid
+	 */
+	static void read(Chain chain, File location) throws IOException {
+		ByteBuffer in;
+		try (RandomAccessFile raf = new RandomAccessFile(location, "r");
+				FileChannel channel = raf.getChannel()) {
+			if (channel.size() > Integer.MAX_VALUE) {
+				throw new IOException("Chain file too large");
+			}
+			in = ByteBuffer.allocate((int) channel.size());
+			while (in.hasRemaining()) {
+				if (channel.read(in) < 0) {
+					throw new IOException("Chain file ended early");
+				}
+			}
+			in.flip();
+		}
+		try {
+			if (in.getInt() != ChainFile.MAGIC) {
+				throw new IOException("Not a chain file");
+			}
+			int version = in.getInt();
+			if (version != ChainFile.VERSION) {
+				throw new IOException("Unsupported chain file version "
+						+ version);
+			}
+			String[] words = new String[ChainFile.readCount(in)];
+			for (int i = 0; i < words.length; ++i) {
+				int length = ChainFile.readCount(in);
+				words[i] =
+						new String(in.array(), in.position(), length,
+								StandardCharsets.UTF_8);
+				in.position(in.position() + length);
+			}
+			int linkCount = ChainFile.readCount(in);
+			if (linkCount > words.length) {
+				throw new IOException("Invalid link count " + linkCount);
+			}
+			for (int i = 0; i < linkCount; ++i) {
+				int childCount = ChainFile.readCount(in);
+				Link link = new Link(words[i], childCount);
+				for (int c = 0; c < childCount; ++c) {
+					String word = words[ChainFile.readVarint(in)];
+					link.setCount(word, ChainFile.readVarint(in));
+				}
+				chain.add(link);
+			}
+		}
+		catch (BufferUnderflowException | IndexOutOfBoundsException e) {
+			throw new IOException("Invalid chain file", e);
+		}
+	}
+
+	/**
+	 * Calculates the CRC32 of the file contents.
+	 *
+	 * @param file the file to check
+	 * @return the checksum
+	 * @throws IOException if the file cannot be read
+	 */
+	static long checksum(File file) throws IOException {
+		CRC32 crc = new CRC32();
+		ByteBuffer buffer = ByteBuffer.allocateDirect(ChainFile.BUFFER_SIZE);
+		try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+				FileChannel channel = raf.getChannel()) {
+			while (channel.read(buffer) >= 0) {
+				buffer.flip();
+				crc.update(buffer);
+				buffer.clear();
+			}
+		}
+		return crc.getValue();
+	}
+
+	private void writeBytes(byte[] bytes) throws IOException {
+		this.writeVarint(bytes.length);
+		if (bytes.length > this.buffer.remaining()) {
+			this.flush();
+		}
+		if (bytes.length > this.buffer.remaining()) {
+			this.crc.update(bytes);
+			ByteBuffer wrapped = ByteBuffer.wrap(bytes);
+			while (wrapped.hasRemaining()) {
+				this.channel.write(wrapped);
+			}
+		}
+		else {
+			this.buffer.put(bytes);
+		}
+	}
+
+	private void writeVarint(int value) throws IOException {
+		if (this.buffer.remaining() < 5) {
+			this.flush();
+		}
+		while ((value & ~0x7F) != 0) {
+			this.buffer.put((byte) (value & 0x7F | 0x80));
+			value >>>= 7;
+		}
+		this.buffer.put((byte) value);
+	}
+
+	private void flush() throws IOException {
+		this.buffer.flip();
+		this.crc.update(this.buffer.array(), 0, this.buffer.limit());
+		while (this.buffer.hasRemaining()) {
+			this.channel.write(this.buffer);
+		}
+		this.buffer.clear();
+	}
+
+	private static int readVarint(ByteBuffer in) throws IOException {
+		int value = 0;
+		for (int shift = 0; shift < 35; shift += 7) {
+			byte b = in.get();
+			value |= (b & 0x7F) << shift;
+			if (b >= 0) {
+				return value;
+			}
+		}
+		throw new IOException("Invalid varint");
+	}
+
+	/**
+	 * Reads a varint that counts something stored after it, which can't be
+	 * more than the bytes left.
+	 */
+	private static int readCount(ByteBuffer in) throws IOException {
+		int count = ChainFile.readVarint(in);
+		if (count < 0 || count > in.remaining()) {
+			throw new IOException("Invalid count " + count);
+		}
+		return count;
+	}
+}
@@ -0,0 +1,524 @@
+package markov;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+
+/**
+ * Saves a chain as it grows without writing the whole chain each time. The
+ * chain is kept in a base file, in the binary form written by
+ * {@link SaveHandler#saveChain(Chain, File)}, and the counts learned since
+ * the base was written are appended to a journal file next to it. Each
+ * {@link #flush()} appends one batch of the counts that changed since the
+ * last flush, so saving costs as much as what was learned.
+ * <p>
+ * When the journal grows larger than the base file, the chain is written to
+ * a new base file in the background and the journal is emptied. This is
+ * called compaction and can also be done with {@link #compact()}.
+ * <p>
+ * The journal is safe against crashes. Each batch carries its length and a
+ * CRC32, and a batch that was only partly written is cut off when the journal
+ * is opened. The journal also records the CRC32 of the base file it belongs
+ * to. The base is replaced before the journal is emptied, so a crash between
+ * the two leaves a journal for the old base, which is ignored because the
+ * new base already holds its counts.
+ * <p>
+ * Many threads can learn at once. Learning holds the read side of a read
+ * write lock. Flushing and compaction hold the write side only while they
+ * take the counts to write, and write them with the lock released, so
+ * learning goes on while the files are written.
+ *
+ * @author Ches Burks
+ *
+ */
+public class ChainJournal implements ChainLearner, Closeable {
+	/**
+	 * Added to the name of the base file to name the journal.
+	 */
+	public static final String EXTENSION = ".journal";
+
+	private static final int MAGIC = 0x4D4B4A4E;// "MKJN"
+	/**
+	 * Increased whenever the layout of a journal changes, which makes older
+	 * journals invalid.
+	 */
+	private static final int VERSION = 1;
+	private static final int HEADER_SIZE = 16;
+	private static final int BATCH_HEADER_SIZE = 8;
+	/**
+	 * Journals smaller than this are never compacted.
+	 */
+	private static final long MIN_COMPACT_SIZE = 1 << 16;
+
+	private final File base;
+	private final File journal;
+	private final Chain chain = new Chain();
+	private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+	private final ExecutorService compactor;
+	/**
+	 * The counts learned since the last flush
+	 */
+	private Chain pending = new Chain();
+	/**
+	 * Held while the journal or base file is written
+	 */
+	private final Object fileLock = new Object();
+	private FileChannel channel;
+	private long baseSize;
+	/**
+	 * Why the journal is unusable after a write failed and could not be
+	 * undone, or null
+	 */
+	private IOException appendError;
+	private Future<?> compaction;
+	private IOException compactionError;
+
+	private ChainJournal(File base) {
+		this.base = base;
+		this.journal = new File(base.getPath() + ChainJournal.EXTENSION);
+		this.compactor = Executors.newSingleThreadExecutor(task -> {
+			Thread thread = new Thread(task, "Chain compaction");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	/**
+	 * Opens the chain stored in the base file and its journal, creating them
+	 * if they don't exist. The chain is read from the base file and the
+	 * batches of the journal are added to it.
+	 *
+	 * @param location the base file
+	 * @return the opened journal
+	 * @throws IOException if the base file or journal cannot be read
+	 */
+	public static ChainJournal open(File location) throws IOException {
+		ChainJournal journal = new ChainJournal(location);
+		try {
+			journal.load();
+		}
+		catch (IOException e) {
+			journal.compactor.shutdown();
+			if (journal.channel != null) {
+				journal.channel.close();
+			}
+			throw e;
+		}
+		return journal;
+	}
+
+	/**
+	 * Returns the chain. It can be read, but anything learned by changing it
+	 * directly is not saved.
+	 *
+	 * @return the chain holding everything learned
+	 */
+	public Chain getChain() {
+		return this.chain;
+	}
+
+	/**
+	 * Learns the link between two words, like
+	 * {@link Chain#learnWordLink(String, String)}, and remembers it for the
+	 * next flush.
+	 *
+	 * @param first the first word
+	 * @param second the word right after the first word.
+	 */
+	@Override
+	public void learnWordLink(String first, String second) {
+		this.lock.readLock().lock();
+		try {
+			this.chain.learnWordLink(first, second);
+			this.pending.learnWordLink(first, second);
+		}
+		finally {
+			this.lock.readLock().unlock();
+		}
+	}
+
+	@Override
+	public int getCount(String first, String second) {
+		return this.chain.getCount(first, second);
+	}
+
+	/**
+	 * Returns the chain, like {@link #getChain()}.
+	 *
+	 * @return the chain holding everything learned
+	 */
+	@Override
+	public Chain toChain() {
+		return this.chain;
+	}
+
+	/**
+	 * Adds the counts of the other chain, like {@link Chain#mergeFrom(Chain)},
+	 * and remembers them for the next flush.
+	 *
+	 * @param other the chain to add
+	 */
+	public void mergeFrom(Chain other) {
+		this.lock.readLock().lock();
+		try {
+			this.chain.mergeFrom(other);
+			this.pending.mergeFrom(other);
+		}
+		finally {
+			this.lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Appends the counts learned since the last flush to the journal and
+	 * forces them to disk. Starts a compaction in the background if the
+	 * journal has grown larger than the base file. Learning only waits while
+	 * the counts are taken, not while they are written.
+	 *
+	 * @throws IOException if the journal cannot be written, or the last
+	 *             compaction in the background failed
+	 */
+	public void flush() throws IOException {
+		synchronized (this.fileLock) {
+			Chain batch;
+			this.lock.writeLock().lock();
+			try {
+				this.checkOpen();
+				if (this.appendError != null) {
+					throw new IOException("Journal could not be repaired after"
+							+ " a failed write, compact it to reset it",
+							this.appendError);
+				}
+				batch = this.pending;
+				this.pending = new Chain();
+			}
+			finally {
+				this.lock.writeLock().unlock();
+			}
+			if (batch.size() > 0) {
+				try {
+					this.append(batch);
+				}
+				catch (IOException e) {
+					this.lock.writeLock().lock();
+					this.pending.mergeFrom(batch);
+					this.lock.writeLock().unlock();
+					throw e;
+				}
+			}
+			long size = this.channel.size();
+			if (size > ChainJournal.MIN_COMPACT_SIZE && size > this.baseSize
+					&& (this.compaction == null || this.compaction.isDone())) {
+				this.compaction = this.compactor.submit(() -> {
+					try {
+						this.compact();
+					}
+					catch (IOException e) {
+						this.lock.writeLock().lock();
+						this.compactionError = e;
+						this.lock.writeLock().unlock();
+					}
+				});
+			}
+		}
+	}
+
+	/**
+	 * Writes the whole chain to a new base file and empties the journal. The
+	 * chain is copied first and the copy is written, so learning only waits
+	 * while the copy is made. Flushes wait for the whole compaction, so the
+	 * journal never holds counts the new base file is missing.
+	 *
+	 * @throws IOException if the base file or journal cannot be written
+	 */
+	public void compact() throws IOException {
+		synchronized (this.fileLock) {
+			Chain copy = new Chain();
+			Chain unflushed;
+			this.lock.writeLock().lock();
+			try {
+				this.checkOpen();
+				copy.mergeFrom(this.chain);
+				// the copy holds these, they must not be added again
+				unflushed = this.pending;
+				this.pending = new Chain();
+			}
+			finally {
+				this.lock.writeLock().unlock();
+			}
+			try {
+				long checksum = ChainFile.write(copy, this.base);
+				unflushed = null;
+				// the old journal no longer matches and is ignored from here
+				this.baseSize = this.base.length();
+				try {
+					this.channel.truncate(0);
+					ChainJournal.writeHeader(this.channel, checksum);
+					this.appendError = null;
+				}
+				catch (IOException e) {
+					this.appendError = e;
+					throw e;
+				}
+			}
+			finally {
+				if (unflushed != null) {
+					this.lock.writeLock().lock();
+					this.pending.mergeFrom(unflushed);
+					this.lock.writeLock().unlock();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Flushes the journal, waits for any compaction to finish and closes the
+	 * journal. The chain can still be read afterwards. Closing a closed
+	 * journal does nothing.
+	 *
+	 * @throws IOException if the journal cannot be written
+	 */
+	@Override
+	public void close() throws IOException {
+		this.lock.readLock().lock();
+		try {
+			if (this.channel == null) {
+				return;
+			}
+		}
+		finally {
+			this.lock.readLock().unlock();
+		}
+		try {
+			this.flush();
+			Future<?> running = this.compaction;
+			if (running != null) {
+				running.get();
+			}
+			this.checkOpen();
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while compacting", e);
+		}
+		catch (ExecutionException e) {
+			throw new IOException("Compaction failed", e.getCause());
+		}
+		finally {
+			this.compactor.shutdown();
+			synchronized (this.fileLock) {
+				this.lock.writeLock().lock();
+				try {
+					if (this.channel != null) {
+						this.channel.close();
+						this.channel = null;
+					}
+				}
+				finally {
+					this.lock.writeLock().unlock();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Reads the base file and replays the journal, then leaves the journal
+	 * open for appending.
+	 */
+	private void load() throws IOException {
+		long checksum = -1;
+		if (this.base.exists()) {
+			ChainFile.read(this.chain, this.base);
+			checksum = ChainFile.checksum(this.base);
+			this.baseSize = this.base.length();
+		}
+		this.channel = new RandomAccessFile(this.journal, "rw").getChannel();
+		long valid = this.replay(checksum);
+		if (valid < 0) {
+			this.channel.truncate(0);
+			ChainJournal.writeHeader(this.channel, checksum);
+		}
+		else {
+			this.channel.truncate(valid);
+			this.channel.position(valid);
+		}
+	}
+
+	/**
+	 * Adds every whole, undamaged batch of the journal to the chain.
+	 *
+	 * @param checksum the checksum of the base file
+	 * @return the length of the journal up to the end of the last good batch,
+	 *         or -1 if the journal is empty or belongs to another base file
+	 */
+	private long replay(long checksum) throws IOException {
+		long size = this.channel.size();
+		if (size < ChainJournal.HEADER_SIZE) {
+			return -1;
+		}
+		if (size > Integer.MAX_VALUE) {
+			throw new IOException("Journal too large");
+		}
+		ByteBuffer in = ByteBuffer.allocate((int) size);
+		while (in.hasRemaining()) {
+			if (this.channel.read(in, in.position()) < 0) {
+				throw new IOException("Journal ended early");
+			}
+		}
+		in.flip();
+		if (in.getInt() != ChainJournal.MAGIC
+				|| in.getInt() != ChainJournal.VERSION
+				|| in.getLong() != checksum) {
+			return -1;
+		}
+		CRC32 crc = new CRC32();
+		int valid = in.position();
+		while (in.remaining() >= ChainJournal.BATCH_HEADER_SIZE) {
+			int length = in.getInt();
+			int expected = in.getInt();
+			if (length < 0 || length > in.remaining()) {
+				break;
+			}
+			crc.reset();
+			crc.update(in.array(), in.position(), length);
+			if ((int) crc.getValue() != expected) {
+				break;
+			}
+			Chain batch;
+			try {
+				batch =
+						ChainJournal.readBatch(new DataInputStream(
+								new ByteArrayInputStream(in.array(), in
+										.position(), length)));
+			}
+			catch (IOException e) {
+				break;
+			}
+			this.chain.mergeFrom(batch);
+			in.position(in.position() + length);
+			valid = in.position();
+		}
+		// a batch cut short by a crash is dropped along with anything after it
+		return valid;
+	}
+
+	/**
+	 * Writes the batch to the end of the journal and forces it to disk. If
+	 * the write fails, the journal is cut back to where the batch started, so
+	 * the batches written after it are not lost behind a damaged one when the
+	 * journal is replayed. If that fails too, the journal takes no more
+	 * batches until it is compacted.
+	 */
+	private void append(Chain batch) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeInt(0);// the length and checksum are filled in below
+		out.writeInt(0);
+		List<Link> links = batch.getKnownWords();
+		out.writeInt(links.size());
+		for (Link link : links) {
+			out.writeUTF(link.getWord());
+			List<Child> children = link.getList();
+			out.writeInt(children.size());
+			for (Child child : children) {
+				out.writeUTF(child.getWord());
+				out.writeInt(child.getOccuranceCount());
+			}
+		}
+		out.flush();
+		byte[] array = bytes.toByteArray();
+		int length = array.length - ChainJournal.BATCH_HEADER_SIZE;
+		CRC32 crc = new CRC32();
+		crc.update(array, ChainJournal.BATCH_HEADER_SIZE, length);
+		ByteBuffer buffer = ByteBuffer.wrap(array);
+		buffer.putInt(0, length);
+		buffer.putInt(4, (int) crc.getValue());
+		long start = this.channel.position();
+		try {
+			while (buffer.hasRemaining()) {
+				this.channel.write(buffer);
+			}
+			this.channel.force(false);
+		}
+		catch (IOException e) {
+			try {
+				this.channel.truncate(start);
+				this.channel.position(start);
+				this.channel.force(false);
+			}
+			catch (IOException truncateError) {
+				e.addSuppressed(truncateError);
+				this.appendError = e;
+			}
+			throw e;
+		}
+	}
+
+	/**
+	 * Reads a batch written by {@link #append(Chain)}.
+	 */
+	private static Chain readBatch(DataInputStream in) throws IOException {
+		Chain batch = new Chain();
+		int linkCount = in.readInt();
+		for (int i = 0; i < linkCount; ++i) {
+			String word = in.readUTF();
+			int childCount = in.readInt();
+			if (childCount < 0 || childCount > in.available()) {
+				throw new IOException("Invalid child count " + childCount);
+			}
+			Link link = new Link(word, childCount);
+			for (int c = 0; c < childCount; ++c) {
+				link.setCount(in.readUTF(), in.readInt());
+			}
+			batch.add(link);
+		}
+		return batch;
+	}
+
+	/**
+	 * Writes the header of an empty journal at the start of the channel,
+	 * leaving the channel positioned after it.
+	 */
+	private static void writeHeader(FileChannel channel, long checksum)
+			throws IOException {
+		ByteBuffer header = ByteBuffer.allocate(ChainJournal.HEADER_SIZE);
+		header.putInt(ChainJournal.MAGIC);
+		header.putInt(ChainJournal.VERSION);
+		header.putLong(checksum);
+		header.flip();
+		channel.position(0);
+		while (header.hasRemaining()) {
+			channel.write(header);
+		}
+		channel.force(true);
+	}
+
+	/**
+	 * Throws if the journal was closed or the last compaction failed. The
+	 * failure is only reported once.
+	 */
+	private void checkOpen() throws IOException {
+		if (this.compactionError != null) {
+			IOException error = this.compactionError;
+			this.compactionError = null;
+			throw new IOException("Compaction failed", error);
+		}
+		if (this.channel == null) {
+			throw new IOException("Journal is closed");
+		}
+	}
+}
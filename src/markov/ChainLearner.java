@@ -0,0 +1,39 @@
+package markov;
+
+/**
+ * Learns how often each word follows another. {@link Chain} counts every
+ * transition exactly, and {@link SketchChain} estimates the counts in a fixed
+ * amount of memory for corpora too large to count exactly. Code that only
+ * learns and reads counts can take either one, and turn what it learned into
+ * a chain for saving and generating with {@link #toChain()}.
+ *
+ * @author Ches Burks
+ *
+ */
+public interface ChainLearner {
+	/**
+	 * Counts one more time the second word followed the first.
+	 *
+	 * @param first the first word
+	 * @param second the word right after the first word.
+	 */
+	void learnWordLink(String first, String second);
+
+	/**
+	 * Returns how many times the second word followed the first, or an
+	 * estimate of it if the learner does not count exactly.
+	 *
+	 * @param first the first word
+	 * @param second the word right after the first word.
+	 * @return the count, 0 if the words were never learned together
+	 */
+	int getCount(String first, String second);
+
+	/**
+	 * Returns the transitions learned as a chain, with their counts or
+	 * estimates of them.
+	 *
+	 * @return a chain of what was learned
+	 */
+	Chain toChain();
+}
@@ -0,0 +1,187 @@
+package markov;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.function.Consumer;
+
+/**
+ * Generates words by walking a {@link TransitionMatrix}. Each step picks the
+ * next word from the successors of the current one with the alias table of
+ * its row, so a step takes the same time however large the chain is, and
+ * does not allocate. When the current word has no successors, the walk starts
+ * again from a random word that has some.
+ * <p>
+ * Words can be written as ids into an int array, appended to a reused
+ * {@link StringBuilder}, or passed one at a time to a sink, such as the
+ * <code>add</code> method of a JFugue pattern. Each call goes on from the
+ * last word of the one before, so a long piece can be written in parts.
+ * <p>
+ * A generator is not thread safe, use one per thread. The matrix can be
+ * shared between them.
+ *
+ * @author Ches Burks
+ *
+ */
+public class Generator {
+	private final TransitionMatrix matrix;
+	private final SymbolTable symbols;
+	private final Random random;
+	/**
+	 * The ids of the words with at least one successor
+	 */
+	private final int[] starts;
+	/**
+	 * The id of the last word generated, or -1 to start from a random word
+	 */
+	private int current = -1;
+
+	/**
+	 * Creates a generator for the current contents of the chain. Words
+	 * learned by the chain afterwards are not used.
+	 *
+	 * @param chain the chain to copy
+	 * @param random the random number generator to use
+	 */
+	public Generator(Chain chain, Random random) {
+		this(new TransitionMatrix(chain), random);
+	}
+
+	/**
+	 * Creates a generator that walks the matrix.
+	 *
+	 * @param matrix the transitions to follow
+	 * @param random the random number generator to use
+	 */
+	public Generator(TransitionMatrix matrix, Random random) {
+		this.matrix = matrix;
+		this.symbols = matrix.getSymbols();
+		this.random = random;
+		int n = 0;
+		int[] ids = new int[matrix.size()];
+		for (int id = 0; id < ids.length; ++id) {
+			if (matrix.getRowStart(id) < matrix.getRowStart(id + 1)) {
+				ids[n++] = id;
+			}
+		}
+		this.starts = Arrays.copyOf(ids, n);
+	}
+
+	/**
+	 * Returns the matrix this generator walks.
+	 *
+	 * @return the transition matrix
+	 */
+	public TransitionMatrix getMatrix() {
+		return this.matrix;
+	}
+
+	/**
+	 * Makes the next word a random one with successors, as at the start.
+	 */
+	public void reset() {
+		this.current = -1;
+	}
+
+	/**
+	 * Returns the id of the last word generated.
+	 *
+	 * @return the id of the current word, or -1 if the walk has not started
+	 */
+	public int getCurrent() {
+		return this.current;
+	}
+
+	/**
+	 * Sets the word the walk goes on from.
+	 *
+	 * @param id the id of the word, or -1 to start from a random word
+	 * @throws IllegalArgumentException if there is no word with that id
+	 */
+	public void setCurrent(int id) {
+		if (id < -1 || id >= this.matrix.size()) {
+			throw new IllegalArgumentException("Invalid id " + id);
+		}
+		this.current = id;
+	}
+
+	/**
+	 * Generates the next word.
+	 *
+	 * @return the id of the word, or -1 if no word has a successor
+	 */
+	public int nextId() {
+		int next = -1;
+		if (this.current >= 0) {
+			next = this.matrix.sample(this.current, this.random);
+		}
+		if (next < 0 && this.starts.length > 0) {
+			next = this.starts[this.random.nextInt(this.starts.length)];
+		}
+		this.current = next;
+		return next;
+	}
+
+	/**
+	 * Generates words into the array.
+	 *
+	 * @param out the array to write the ids of the words to
+	 * @param offset the index of the first word in the array
+	 * @param length how many words to generate
+	 * @return the number of words written, less than the length only if no
+	 *         word has a successor
+	 */
+	public int generate(int[] out, int offset, int length) {
+		for (int i = 0; i < length; ++i) {
+			int id = this.nextId();
+			if (id < 0) {
+				return i;
+			}
+			out[offset + i] = id;
+		}
+		return length;
+	}
+
+	/**
+	 * Generates words and appends them to the builder, with a space before
+	 * each word unless the builder is empty. The builder can be emptied with
+	 * <code>setLength(0)</code> and used again, so once it has grown large
+	 * enough nothing is allocated.
+	 *
+	 * @param length how many words to generate
+	 * @param out the builder to append to
+	 * @return the number of words written, less than the length only if no
+	 *         word has a successor
+	 */
+	public int generate(int length, StringBuilder out) {
+		for (int i = 0; i < length; ++i) {
+			int id = this.nextId();
+			if (id < 0) {
+				return i;
+			}
+			if (out.length() > 0) {
+				out.append(' ');
+			}
+			out.append(this.symbols.getSymbol(id));
+		}
+		return length;
+	}
+
+	/**
+	 * Generates words and passes each one to the sink as it is picked.
+	 *
+	 * @param length how many words to generate
+	 * @param sink what to pass the words to
+	 * @return the number of words written, less than the length only if no
+	 *         word has a successor
+	 */
+	public int generate(int length, Consumer<? super String> sink) {
+		for (int i = 0; i < length; ++i) {
+			int id = this.nextId();
+			if (id < 0) {
+				return i;
+			}
+			sink.accept(this.symbols.getSymbol(id));
+		}
+		return length;
+	}
+}
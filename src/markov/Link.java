@@ -1,21 +1,58 @@
 package markov;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
-import java.util.LinkedList;
+import java.util.List;
+import java.util.Random;
 
 /**
  * A link in the Markov chain. This holds a word and a list of {@link Child
  * children} that have followed it in sequence.
+ * <p>
+ * The counts are kept in an open addressing hash table of words and int
+ * counts, so learning a word takes the same time however many children there
+ * are. The sorted list of children, and the alias table used to pick a
+ * random child, are only built when they are needed.
+ * <p>
+ * Links are thread safe. Each method locks the link while it runs.
  *
  * @author Ches Burks
  *
  */
 public class Link implements Comparable<Link> {
+	private static final int INITIAL_CAPACITY = 4;
+
+	/**
+	 * The strings that have followed the current word, with empty slots
+	 */
+	private String[] words;
+	/**
+	 * How many times each string in the table has occurred
+	 */
+	private int[] counts;
+	private int size;
+	/**
+	 * The sum of the counts of children removed by pruning
+	 */
+	private long dropped;
 	/**
-	 * A list of strings that have followed the current word and how many times
-	 * they have occurred
+	 * The sorted children, or null if the table changed since they were made
 	 */
-	private LinkedList<Child> children = new LinkedList<>();
+	private List<Child> children;
+	/**
+	 * The words of the alias table, or null if the table changed since it was
+	 * made
+	 */
+	private String[] aliasWords;
+	/**
+	 * The chance of keeping each word of the alias table over its alias
+	 */
+	private double[] aliasChance;
+	/**
+	 * The index of the word picked when a word of the alias table is not kept
+	 */
+	private int[] alias;
 	private final String current;
 
 	/**
@@ -24,7 +61,21 @@ public class Link implements Comparable<Link> {
 	 * @param word the base word for this probability list
 	 */
 	public Link(String word) {
+		this(word, 0);
+	}
+
+	/**
+	 * Creates a link for this word with no children and room for the given
+	 * number of children before its table has to grow.
+	 *
+	 * @param word the base word for this probability list
+	 * @param children the number of children expected
+	 */
+	Link(String word, int children) {
 		this.current = word;
+		int capacity = Link.capacity(children);
+		this.words = new String[capacity];
+		this.counts = new int[capacity];
 	}
 
 	/**
@@ -39,64 +90,352 @@ public class Link implements Comparable<Link> {
 	/**
 	 * Stores the given word in the list of next words. If the word does not
 	 * exist, it is added with a count of 1, otherwise the occurrence count for
-	 * the child tracking that word is incremented. Sorts the list if a new
-	 * element is added.
+	 * the child tracking that word is incremented.
 	 *
 	 * @param word the word to store
 	 */
-	public void learnWord(String word) {
-		boolean childFound = false;// if it found an entry
-		for (Child child : this.children) {
-			if (child.getWord().equals(word)) {
-				child.incrementCount();
-				childFound = true;
+	public synchronized void learnWord(String word) {
+		int slot = this.slot(word);
+		if (this.words[slot] == null) {
+			slot = this.insert(word, slot);
+		}
+		++this.counts[slot];
+		this.changed();
+	}
+
+	/**
+	 * Learns the word like {@link #learnWord(String)}, then prunes the link
+	 * if it has more than twice the given number of children, keeping the
+	 * children with the highest counts. Letting the link grow past the limit
+	 * before pruning gives new words the chance to be counted more than once
+	 * before they are compared with the words already kept.
+	 *
+	 * @param word the word to store
+	 * @param maxChildren the number of children kept when the link is pruned
+	 * @return the change in the number of children
+	 */
+	synchronized int learnWord(String word, int maxChildren) {
+		int slot = this.slot(word);
+		int added = 0;
+		if (this.words[slot] == null) {
+			slot = this.insert(word, slot);
+			added = 1;
+		}
+		++this.counts[slot];
+		this.changed();
+		if (this.size - maxChildren > maxChildren) {
+			added += this.prune(1, maxChildren);
+		}
+		return added;
+	}
+
+	/**
+	 * Removes the children with a count below the minimum, then all but the
+	 * given number of children with the highest counts. Children with the
+	 * same count are kept in no particular order. The counts removed are
+	 * added to {@link #getDroppedCount()}, and the table shrinks to fit the
+	 * children left.
+	 *
+	 * @param minCount the lowest count kept
+	 * @param maxChildren the most children kept
+	 * @return the change in the number of children, 0 or less
+	 */
+	synchronized int prune(int minCount, int maxChildren) {
+		int[] kept = new int[this.size];
+		int n = 0;
+		for (int i = 0; i < this.words.length; ++i) {
+			if (this.words[i] != null && this.counts[i] >= minCount) {
+				kept[n++] = this.counts[i];
 			}
-			if (childFound) {
-				break;
+		}
+		int cutoff = minCount;
+		int ties = Integer.MAX_VALUE;
+		if (n > maxChildren) {
+			Arrays.sort(kept, 0, n);
+			cutoff = kept[n - maxChildren];
+			ties = 0;
+			for (int i = n - maxChildren; i < n && kept[i] == cutoff; ++i) {
+				++ties;
 			}
+			n = maxChildren;
 		}
-		if (!childFound) {
-			Child newChild = new Child(word);
-			this.children.add(newChild);
-			Collections.sort(this.children);
+		int before = this.size;
+		if (n == before) {
+			return 0;
+		}
+		String[] oldWords = this.words;
+		int[] oldCounts = this.counts;
+		int capacity = Link.capacity(n);
+		this.words = new String[capacity];
+		this.counts = new int[capacity];
+		this.size = 0;
+		for (int i = 0; i < oldWords.length; ++i) {
+			if (oldWords[i] == null) {
+				continue;
+			}
+			int count = oldCounts[i];
+			if (count > cutoff || (count == cutoff && ties-- > 0)) {
+				int slot = this.slot(oldWords[i]);
+				this.words[slot] = oldWords[i];
+				this.counts[slot] = count;
+				++this.size;
+			}
+			else {
+				this.dropped += count;
+			}
+		}
+		this.changed();
+		return this.size - before;
+	}
+
+	/**
+	 * Counts the children of this link by their count. The child counts are
+	 * used as indexes into the histogram, with counts past its end added to
+	 * the last element.
+	 *
+	 * @param histogram the number of children with each count, added to
+	 */
+	synchronized void countHistogram(int[] histogram) {
+		int last = histogram.length - 1;
+		for (int i = 0; i < this.words.length; ++i) {
+			if (this.words[i] != null) {
+				++histogram[Math.max(0, Math.min(this.counts[i], last))];
+			}
 		}
 	}
 
+	/**
+	 * Returns the sum of the counts of this link's children, which is the
+	 * number of times a word was learned after this one and kept.
+	 *
+	 * @return the total count
+	 */
+	public synchronized long getTotalCount() {
+		long total = 0;
+		for (int i = 0; i < this.words.length; ++i) {
+			if (this.words[i] != null) {
+				total += this.counts[i];
+			}
+		}
+		return total;
+	}
+
+	/**
+	 * Returns the sum of the counts of the children that were removed when
+	 * this link was pruned, including those of links merged into this one.
+	 *
+	 * @return the count dropped
+	 */
+	public synchronized long getDroppedCount() {
+		return this.dropped;
+	}
+
 	/**
 	 * Adds the child to the list or updates the existing occurrence count to
-	 * the new one if it already is in the list. Sorts if a new item is added.
+	 * the new one if it already is in the list.
 	 *
 	 * @param toAdd the child to add
 	 */
 	public void add(Child toAdd) {
-		boolean childFound = false;// if it found an entry
-		for (Child child : this.children) {
-			if (child.getWord().equals(toAdd.getWord())) {
-				child.setOccuranceCount(toAdd.getOccuranceCount());
-				childFound = true;
-			}
-			if (childFound) {
-				break;
-			}
+		this.setCount(toAdd.getWord(), toAdd.getOccuranceCount());
+	}
+
+	/**
+	 * Sets the occurrence count of the word, adding it as a child if it is not
+	 * one yet.
+	 *
+	 * @param word the next word
+	 * @param count the new occurrence count
+	 */
+	synchronized void setCount(String word, int count) {
+		int slot = this.slot(word);
+		if (this.words[slot] == null) {
+			slot = this.insert(word, slot);
 		}
-		if (!childFound) {
-			this.children.add(toAdd);
-			Collections.sort(this.children);
+		this.counts[slot] = count;
+		this.changed();
+	}
+
+	/**
+	 * Adds the counts of the other link's children to the counts of this
+	 * link's children, adding any children this link does not have. The other
+	 * link is copied first, so two links can be merged into each other at
+	 * the same time without deadlocking.
+	 *
+	 * @param other the link to add the counts of
+	 */
+	public void mergeFrom(Link other) {
+		String[] otherWords;
+		int[] otherCounts;
+		long otherDropped;
+		synchronized (other) {
+			otherWords = other.words.clone();
+			otherCounts = other.counts.clone();
+			otherDropped = other.dropped;
+		}
+		synchronized (this) {
+			this.dropped += otherDropped;
+			for (int i = 0; i < otherWords.length; ++i) {
+				if (otherWords[i] != null) {
+					int slot = this.slot(otherWords[i]);
+					if (this.words[slot] == null) {
+						slot = this.insert(otherWords[i], slot);
+					}
+					this.counts[slot] += otherCounts[i];
+				}
+			}
+			this.changed();
 		}
 	}
 
 	/**
-	 * Returns the chain probability list for the string this link tracks. This
-	 * list is stored as a sorted linked list.
+	 * Returns how many times the word has followed the word of this link.
+	 *
+	 * @param word the next word
+	 * @return the occurrence count, or 0 if the word has not followed this one
+	 */
+	public synchronized int getCount(String word) {
+		int slot = this.slot(word);
+		return this.words[slot] == null ? 0 : this.counts[slot];
+	}
+
+	/**
+	 * Returns the number of different words that have followed this one.
+	 *
+	 * @return the number of children
+	 */
+	public synchronized int size() {
+		return this.size;
+	}
+
+	/**
+	 * Returns the chain probability list for the string this link tracks,
+	 * sorted by word. The list is sorted here if words were learned since it
+	 * was last asked for. It can't be modified, and changing the count of a
+	 * child in it does not change the link.
 	 *
 	 * @return the child list for this word
 	 */
-	public LinkedList<Child> getList() {
+	public synchronized List<Child> getList() {
+		if (this.children == null) {
+			ArrayList<Child> list = new ArrayList<>(this.size);
+			for (int i = 0; i < this.words.length; ++i) {
+				if (this.words[i] != null) {
+					Child child = new Child(this.words[i]);
+					child.setOccuranceCount(this.counts[i]);
+					list.add(child);
+				}
+			}
+			Collections.sort(list);
+			this.children = Collections.unmodifiableList(list);
+		}
 		return this.children;
 	}
 
+	/**
+	 * Returns a random word that has followed this one. A word is returned as
+	 * often as it was counted, so words with a higher occurrence count are
+	 * more likely. This uses Walker's alias method, which takes the same time
+	 * however many children there are and does not allocate once the table is
+	 * built.
+	 *
+	 * @param random the random number generator to use
+	 * @return a random child word, or null if no word has followed this one
+	 */
+	public synchronized String sample(Random random) {
+		if (this.aliasWords == null) {
+			this.buildAliasTable();
+		}
+		int n = this.aliasWords.length;
+		if (n == 0) {
+			return null;
+		}
+		int i = random.nextInt(n);
+		if (random.nextDouble() < this.aliasChance[i]) {
+			return this.aliasWords[i];
+		}
+		return this.aliasWords[this.alias[i]];
+	}
+
 	@Override
 	public int compareTo(Link o) {
 		return this.current.compareTo(o.getWord());
 	}
+
+	/**
+	 * Throws away the sorted list and alias table after the counts change.
+	 */
+	private void changed() {
+		this.children = null;
+		this.aliasWords = null;
+	}
+
+	/**
+	 * Builds the alias table from the words with a count above 0.
+	 */
+	private void buildAliasTable() {
+		String[] tableWords = new String[this.size];
+		int[] weights = new int[this.size];
+		int n = 0;
+		for (int i = 0; i < this.words.length; ++i) {
+			if (this.words[i] != null && this.counts[i] > 0) {
+				tableWords[n] = this.words[i];
+				weights[n] = this.counts[i];
+				++n;
+			}
+		}
+		this.aliasChance = new double[n];
+		this.alias = new int[n];
+		AliasTable.build(weights, 0, n, this.aliasChance, this.alias);
+		this.aliasWords = Arrays.copyOf(tableWords, n);
+	}
+
+	/**
+	 * Returns the size of a table with room for the given number of children
+	 * before it has to grow.
+	 */
+	private static int capacity(int children) {
+		int capacity = Link.INITIAL_CAPACITY;
+		while (capacity < children * 2) {
+			capacity *= 2;
+		}
+		return capacity;
+	}
+
+	/**
+	 * Returns the slot holding the word, or the empty slot it would go in.
+	 */
+	private int slot(String word) {
+		int mask = this.words.length - 1;
+		int hash = word.hashCode();
+		int slot = (hash ^ (hash >>> 16)) & mask;
+		while (this.words[slot] != null && !this.words[slot].equals(word)) {
+			slot = (slot + 1) & mask;
+		}
+		return slot;
+	}
+
+	/**
+	 * Puts a new word with a count of 0 in the empty slot, growing the table
+	 * first if it is half full, and returns the slot the word ended up in.
+	 */
+	private int insert(String word, int slot) {
+		if ((this.size + 1) * 2 > this.words.length) {
+			String[] oldWords = this.words;
+			int[] oldCounts = this.counts;
+			this.words = new String[oldWords.length * 2];
+			this.counts = new int[oldWords.length * 2];
+			for (int i = 0; i < oldWords.length; ++i) {
+				if (oldWords[i] != null) {
+					int to = this.slot(oldWords[i]);
+					this.words[to] = oldWords[i];
+					this.counts[to] = oldCounts[i];
+				}
+			}
+			slot = this.slot(word);
+		}
+		this.words[slot] = word;
+		++this.size;
+		return slot;
+	}
 }
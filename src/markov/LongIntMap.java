@@ -0,0 +1,144 @@
+package markov;
+
+/**
+ * An open addressing hash table from long keys to int values, without boxing
+ * either. A value of 0 marks an empty slot, so 0 can't be stored; getting a
+ * key that is not in the table returns 0.
+ *
+ * @author Ches Burks
+ *
+ */
+final class LongIntMap {
+	private long[] keys;
+	private int[] values;
+	private int size;
+	private int shift;
+
+	/**
+	 * Creates an empty table.
+	 */
+	LongIntMap() {
+		this.keys = new long[16];
+		this.values = new int[16];
+		this.shift = 64 - 4;
+	}
+
+	/**
+	 * Returns the value of the key.
+	 *
+	 * @param key the key
+	 * @return the value, or 0 if the key is not in the table
+	 */
+	int get(long key) {
+		return this.values[this.slot(key)];
+	}
+
+	/**
+	 * Sets the value of the key.
+	 *
+	 * @param key the key
+	 * @param value the value, which must not be 0
+	 */
+	void put(long key, int value) {
+		int slot = this.slot(key);
+		if (this.values[slot] == 0) {
+			slot = this.insert(key, slot);
+		}
+		this.values[slot] = value;
+	}
+
+	/**
+	 * Adds to the value of the key, adding the key with a value of 0 first if
+	 * it is not in the table.
+	 *
+	 * @param key the key
+	 * @param delta the amount to add, the sum must not be 0
+	 * @return the new value
+	 */
+	int add(long key, int delta) {
+		int slot = this.slot(key);
+		if (this.values[slot] == 0) {
+			slot = this.insert(key, slot);
+		}
+		this.values[slot] += delta;
+		return this.values[slot];
+	}
+
+	/**
+	 * Returns the number of keys in the table.
+	 *
+	 * @return the number of keys
+	 */
+	int size() {
+		return this.size;
+	}
+
+	/**
+	 * Returns the number of slots, for going through the table with
+	 * {@link #keyAt(int)} and {@link #valueAt(int)}.
+	 *
+	 * @return the number of slots
+	 */
+	int capacity() {
+		return this.keys.length;
+	}
+
+	/**
+	 * Returns the key in the slot.
+	 *
+	 * @param slot the index of the slot
+	 * @return the key, which is only meaningful if the value is not 0
+	 */
+	long keyAt(int slot) {
+		return this.keys[slot];
+	}
+
+	/**
+	 * Returns the value in the slot.
+	 *
+	 * @param slot the index of the slot
+	 * @return the value, or 0 if the slot is empty
+	 */
+	int valueAt(int slot) {
+		return this.values[slot];
+	}
+
+	/**
+	 * Returns the slot holding the key, or the empty slot it would go in.
+	 */
+	private int slot(long key) {
+		int mask = this.keys.length - 1;
+		int slot = (int) ((key * 0x9E3779B97F4A7C15L) >>> this.shift);
+		while (this.values[slot] != 0 && this.keys[slot] != key) {
+			slot = (slot + 1) & mask;
+		}
+		return slot;
+	}
+
+	/**
+	 * Puts the key in the empty slot with a value of 0, growing the table
+	 * first if it is three quarters full, and returns the slot the key ended
+	 * up in. The caller sets the value straight away, so the slot is not left
+	 * looking empty.
+	 */
+	private int insert(long key, int slot) {
+		if ((this.size + 1) * 4 > this.keys.length * 3) {
+			long[] oldKeys = this.keys;
+			int[] oldValues = this.values;
+			this.keys = new long[oldKeys.length * 2];
+			this.values = new int[oldKeys.length * 2];
+			--this.shift;
+			for (int i = 0; i < oldKeys.length; ++i) {
+				if (oldValues[i] != 0) {
+					int to = this.slot(oldKeys[i]);
+					this.keys[to] = oldKeys[i];
+					this.values[to] = oldValues[i];
+				}
+			}
+			slot = this.slot(key);
+		}
+		this.keys[slot] = key;
+		++this.size;
+		return slot;
+	}
+}
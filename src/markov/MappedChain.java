@@ -0,0 +1,464 @@
+package markov;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * A read only chain that is used straight from a memory mapped file, without
+ * building any links. Opening one only checks the header, and the pages of
+ * the file are read as they are used, so a chain of any size is ready to
+ * sample at once. Processes that map the same file share one copy of it in
+ * the page cache.
+ * <p>
+ * The file is written by {@link #write(Chain, File)} and laid out like a
+ * {@link TransitionMatrix}. Every word of the chain has an id, in order of
+ * the UTF-8 bytes of the words, so a word is found with a binary search. The
+ * successors of each word are stored in rows of ids and counts, sorted by
+ * id, each row with its alias table for sampling. All numbers are big
+ * endian:
+ *
+ * <pre>
+ * int magic, int version, int words, int transitions, int string bytes, int 0
+ * int[words + 1]  start of each word in the string bytes
+ * int[words + 1]  start of each row
+ * int[transitions] successor ids
+ * int[transitions] counts
+ * int[transitions] aliases
+ * int 0, if needed to line the chances up on 8 bytes
+ * double[transitions] chances
+ * byte[string bytes] the words
+ * </pre>
+ *
+ * A mapped chain can be read by many threads at once.
+ *
+ * @author Ches Burks
+ *
+ */
+public class MappedChain {
+	private static final int MAGIC = 0x4D4B4349;// "MKCI"
+	/**
+	 * Increased whenever the layout of the file changes.
+	 */
+	private static final int VERSION = 1;
+	private static final int HEADER_SIZE = 24;
+
+	private final ByteBuffer buffer;
+	private final int words;
+	private final int transitions;
+	private final int stringStart;
+	private final int rowStart;
+	private final int successor;
+	private final int count;
+	private final int alias;
+	private final int chance;
+	private final int strings;
+
+	private MappedChain(ByteBuffer buffer, int words, int transitions,
+			int stringBytes) throws IOException {
+		this.buffer = buffer;
+		this.words = words;
+		this.transitions = transitions;
+		this.stringStart = MappedChain.HEADER_SIZE;
+		this.rowStart = this.stringStart + (words + 1) * 4;
+		this.successor = this.rowStart + (words + 1) * 4;
+		this.count = this.successor + transitions * 4;
+		this.alias = this.count + transitions * 4;
+		this.chance = (this.alias + transitions * 4 + 7) & ~7;
+		this.strings = this.chance + transitions * 8;
+		if ((long) this.strings + stringBytes != buffer.capacity()) {
+			throw new IOException("Invalid mapped chain size");
+		}
+	}
+
+	/**
+	 * Maps the chain file written by {@link #write(Chain, File)}.
+	 *
+	 * @param location the file to map
+	 * @return the mapped chain
+	 * @throws IOException if the file cannot be read or is not a mapped
+	 *             chain
+	 */
+	public static MappedChain open(File location) throws IOException {
+		MappedByteBuffer buffer;
+		try (RandomAccessFile raf = new RandomAccessFile(location, "r");
+				FileChannel channel = raf.getChannel()) {
+			if (channel.size() > Integer.MAX_VALUE
+					|| channel.size() < MappedChain.HEADER_SIZE) {
+				throw new IOException("Invalid mapped chain size");
+			}
+			buffer =
+					channel.map(FileChannel.MapMode.READ_ONLY, 0,
+							channel.size());
+		}
+		if (buffer.getInt(0) != MappedChain.MAGIC) {
+			throw new IOException("Not a mapped chain");
+		}
+		int version = buffer.getInt(4);
+		if (version != MappedChain.VERSION) {
+			throw new IOException("Unsupported mapped chain version "
+					+ version);
+		}
+		int words = buffer.getInt(8);
+		int transitions = buffer.getInt(12);
+		int stringBytes = buffer.getInt(16);
+		if (words < 0 || transitions < 0 || stringBytes < 0
+				|| (long) words * 8 + (long) transitions * 20 + stringBytes
+						+ MappedChain.HEADER_SIZE + 8 > buffer.capacity()) {
+			throw new IOException("Invalid mapped chain header");
+		}
+		return new MappedChain(buffer, words, transitions, stringBytes);
+	}
+
+	/**
+	 * Writes the chain in the form read by {@link #open(File)}. The file is
+	 * written next to the location and then moved into place, so processes
+	 * that have the old file mapped keep seeing the old chain.
+	 *
+	 * @param chain the chain to write
+	 * @param location the file to write to
+	 * @throws IOException if the file cannot be written
+	 */
+	public static void write(Chain chain, File location) throws IOException {
+		List<Link> links = chain.getKnownWords();
+		SymbolTable seen = new SymbolTable();
+		for (Link link : links) {
+			seen.add(link.getWord());
+			for (Child child : link.getList()) {
+				seen.add(child.getWord());
+			}
+		}
+		int words = seen.size();
+		byte[][] bytes = new byte[words][];
+		for (int id = 0; id < words; ++id) {
+			bytes[id] = seen.getSymbol(id).getBytes(StandardCharsets.UTF_8);
+		}
+		Arrays.sort(bytes, MappedChain::compare);
+		SymbolTable symbols = new SymbolTable();
+		int stringBytes = 0;
+		for (byte[] word : bytes) {
+			symbols.add(new String(word, StandardCharsets.UTF_8));
+			stringBytes += word.length;
+		}
+
+		// one row per word, empty for the words that only follow others
+		int[] rowStarts = new int[words + 1];
+		int transitions = 0;
+		for (Link link : links) {
+			int id = symbols.getId(link.getWord());
+			for (Child child : link.getList()) {
+				if (child.getOccuranceCount() > 0) {
+					++rowStarts[id + 1];
+					++transitions;
+				}
+			}
+		}
+		for (int id = 0; id < words; ++id) {
+			rowStarts[id + 1] += rowStarts[id];
+		}
+		int[] successors = new int[transitions];
+		int[] counts = new int[transitions];
+		long[] sorter = new long[0];
+		for (Link link : links) {
+			int row = rowStarts[symbols.getId(link.getWord())];
+			List<Child> children = link.getList();
+			if (sorter.length < children.size()) {
+				sorter = new long[children.size()];
+			}
+			int n = 0;
+			for (Child child : children) {
+				if (child.getOccuranceCount() > 0) {
+					long id = symbols.getId(child.getWord());
+					sorter[n++] = id << 32 | child.getOccuranceCount();
+				}
+			}
+			Arrays.sort(sorter, 0, n);
+			for (int i = 0; i < n; ++i) {
+				successors[row + i] = (int) (sorter[i] >>> 32);
+				counts[row + i] = (int) sorter[i];
+			}
+		}
+		double[] chances = new double[transitions];
+		int[] aliases = new int[transitions];
+		for (int id = 0; id < words; ++id) {
+			if (rowStarts[id] < rowStarts[id + 1]) {
+				AliasTable.build(counts, rowStarts[id], rowStarts[id + 1],
+						chances, aliases);
+			}
+		}
+
+		File directory = location.getAbsoluteFile().getParentFile();
+		File temp =
+				File.createTempFile(location.getName(), ".tmp", directory);
+		try {
+			try (DataOutputStream out =
+					new DataOutputStream(new BufferedOutputStream(
+							new FileOutputStream(temp), 1 << 16))) {
+				out.writeInt(MappedChain.MAGIC);
+				out.writeInt(MappedChain.VERSION);
+				out.writeInt(words);
+				out.writeInt(transitions);
+				out.writeInt(stringBytes);
+				out.writeInt(0);
+				int start = 0;
+				for (byte[] word : bytes) {
+					out.writeInt(start);
+					start += word.length;
+				}
+				out.writeInt(start);
+				MappedChain.writeInts(out, rowStarts);
+				MappedChain.writeInts(out, successors);
+				MappedChain.writeInts(out, counts);
+				MappedChain.writeInts(out, aliases);
+				if (out.size() % 8 != 0) {
+					out.writeInt(0);
+				}
+				for (double value : chances) {
+					out.writeDouble(value);
+				}
+				for (byte[] word : bytes) {
+					out.write(word);
+				}
+			}
+			Files.move(temp.toPath(), location.toPath(),
+					StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+			temp = null;
+		}
+		finally {
+			if (temp != null) {
+				temp.delete();
+			}
+		}
+	}
+
+	/**
+	 * Returns the number of words, both the words with successors and the
+	 * words that only follow others.
+	 *
+	 * @return the number of words
+	 */
+	public int size() {
+		return this.words;
+	}
+
+	/**
+	 * Returns the number of successors stored over all words.
+	 *
+	 * @return the number of transitions
+	 */
+	public int getTransitions() {
+		return this.transitions;
+	}
+
+	/**
+	 * Returns true if the word has been followed by another.
+	 *
+	 * @param word the word
+	 * @return true if the word has successors
+	 */
+	public boolean hasWord(String word) {
+		int id = this.getId(word);
+		return id >= 0 && this.getRowStart(id) < this.getRowStart(id + 1);
+	}
+
+	/**
+	 * Returns the id of the word.
+	 *
+	 * @param word the word
+	 * @return the id of the word, or -1 if it is not in the chain
+	 */
+	public int getId(String word) {
+		byte[] key = word.getBytes(StandardCharsets.UTF_8);
+		int low = 0;
+		int high = this.words - 1;
+		while (low <= high) {
+			int middle = (low + high) >>> 1;
+			int compared = this.compareWord(middle, key);
+			if (compared < 0) {
+				low = middle + 1;
+			}
+			else if (compared > 0) {
+				high = middle - 1;
+			}
+			else {
+				return middle;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Returns the word with the given id.
+	 *
+	 * @param id the id of a word
+	 * @return the word
+	 * @throws IndexOutOfBoundsException if no word has the id
+	 */
+	public String getWord(int id) {
+		if (id < 0 || id >= this.words) {
+			throw new IndexOutOfBoundsException("No word " + id);
+		}
+		int start = this.stringOffset(id);
+		byte[] word = new byte[this.stringOffset(id + 1) - start];
+		for (int i = 0; i < word.length; ++i) {
+			word[i] = this.buffer.get(start + i);
+		}
+		return new String(word, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Returns the index of the first successor of the word. The successors of
+	 * the word end at the start of the next row.
+	 *
+	 * @param id the id of the word
+	 * @return the index of its first successor
+	 */
+	public int getRowStart(int id) {
+		return this.buffer.getInt(this.rowStart + id * 4);
+	}
+
+	/**
+	 * Returns the id of the successor at the index.
+	 *
+	 * @param index the index of a successor
+	 * @return the id of the following word
+	 */
+	public int getSuccessor(int index) {
+		return this.buffer.getInt(this.successor + index * 4);
+	}
+
+	/**
+	 * Returns the occurrence count of the successor at the index.
+	 *
+	 * @param index the index of a successor
+	 * @return how often it followed the word of its row
+	 */
+	public int getCount(int index) {
+		return this.buffer.getInt(this.count + index * 4);
+	}
+
+	/**
+	 * Returns how many times the second word followed the first.
+	 *
+	 * @param first the first word
+	 * @param second the word after it
+	 * @return the occurrence count, or 0 if second never followed first
+	 */
+	public int getCount(String first, String second) {
+		int from = this.getId(first);
+		int to = this.getId(second);
+		if (from < 0 || to < 0) {
+			return 0;
+		}
+		int low = this.getRowStart(from);
+		int high = this.getRowStart(from + 1) - 1;
+		while (low <= high) {
+			int middle = (low + high) >>> 1;
+			int id = this.getSuccessor(middle);
+			if (id < to) {
+				low = middle + 1;
+			}
+			else if (id > to) {
+				high = middle - 1;
+			}
+			else {
+				return this.getCount(middle);
+			}
+		}
+		return 0;
+	}
+
+	/**
+	 * Returns the id of a random word that has followed the given one. A word
+	 * is returned as often as it was counted.
+	 *
+	 * @param id the id of the current word
+	 * @param random the random number generator to use
+	 * @return the id of a random successor, or -1 if no word has followed it
+	 */
+	public int sample(int id, Random random) {
+		int start = this.getRowStart(id);
+		int n = this.getRowStart(id + 1) - start;
+		if (n == 0) {
+			return -1;
+		}
+		int i = start + random.nextInt(n);
+		if (random.nextDouble() < this.buffer.getDouble(this.chance + i * 8)) {
+			return this.getSuccessor(i);
+		}
+		return this.getSuccessor(this.buffer.getInt(this.alias + i * 4));
+	}
+
+	/**
+	 * Returns a random word that has followed the given one, like
+	 * {@link Link#sample(Random)}.
+	 *
+	 * @param word the current word
+	 * @param random the random number generator to use
+	 * @return a random successor, or null if no word has followed it
+	 */
+	public String sample(String word, Random random) {
+		int id = this.getId(word);
+		if (id < 0) {
+			return null;
+		}
+		int next = this.sample(id, random);
+		return next < 0 ? null : this.getWord(next);
+	}
+
+	private int stringOffset(int id) {
+		return this.strings + this.buffer.getInt(this.stringStart + id * 4);
+	}
+
+	/**
+	 * Compares the stored word with the given bytes, like
+	 * {@link #compare(byte[], byte[])}.
+	 */
+	private int compareWord(int id, byte[] key) {
+		int start = this.stringOffset(id);
+		int length = this.stringOffset(id + 1) - start;
+		int shorter = Math.min(length, key.length);
+		for (int i = 0; i < shorter; ++i) {
+			int difference =
+					(this.buffer.get(start + i) & 0xFF) - (key[i] & 0xFF);
+			if (difference != 0) {
+				return difference;
+			}
+		}
+		return length - key.length;
+	}
+
+	/**
+	 * Compares the bytes as unsigned numbers, then by length.
+	 */
+	private static int compare(byte[] first, byte[] second) {
+		int shorter = Math.min(first.length, second.length);
+		for (int i = 0; i < shorter; ++i) {
+			int difference = (first[i] & 0xFF) - (second[i] & 0xFF);
+			if (difference != 0) {
+				return difference;
+			}
+		}
+		return first.length - second.length;
+	}
+
+	private static void writeInts(DataOutputStream out, int[] values)
+			throws IOException {
+		for (int value : values) {
+			out.writeInt(value);
+		}
+	}
+}
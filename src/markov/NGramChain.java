@@ -0,0 +1,287 @@
+package markov;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * A Markov chain of order k, where the next word depends on the k words
+ * before it. The ids of the k previous words, from the {@link SymbolTable},
+ * are packed into a single long context key, 64 / k bits each, with the most
+ * recent word in the lowest bits. The counts are kept in primitive hash
+ * tables keyed by context and next word, so a higher order does not cost any
+ * more objects.
+ * <p>
+ * The packing limits how many different words a chain can hold: any number
+ * up to order 2, 2^21 at order 3, 65536 at order 4 and 256 at order 8.
+ * <p>
+ * A table for picking random words is built on the first
+ * {@link #sample(long, Random)} after something was learned, so learning and
+ * sampling should not be mixed more than needed.
+ *
+ * @author Ches Burks
+ *
+ */
+public class NGramChain {
+	/**
+	 * The highest order a chain can have.
+	 */
+	public static final int MAX_ORDER = 8;
+
+	private final int order;
+	private final int bits;
+	private final long mask;
+	private final int maxId;
+	private final SymbolTable symbols;
+	/**
+	 * The index of each context, plus 1
+	 */
+	private final LongIntMap contextIndex = new LongIntMap();
+	private long[] contexts = new long[16];
+	private int contextCount;
+	/**
+	 * The counts, keyed by the index of the context in the high 32 bits and
+	 * the id of the next word in the low 32 bits
+	 */
+	private final LongIntMap counts = new LongIntMap();
+
+	/**
+	 * The sampling table in compressed sparse row form, or null if something
+	 * was learned since it was built
+	 */
+	private int[] rowStart;
+	private int[] successor;
+	private double[] aliasChance;
+	private int[] alias;
+
+	/**
+	 * Creates an empty chain with its own symbol table.
+	 *
+	 * @param order the number of words each word depends on
+	 * @throws IllegalArgumentException if the order is not from 1 to
+	 *             {@link #MAX_ORDER}
+	 */
+	public NGramChain(int order) {
+		this(order, new SymbolTable());
+	}
+
+	/**
+	 * Creates an empty chain that gives words ids from the given table. The
+	 * table can be shared by chains of different orders.
+	 *
+	 * @param order the number of words each word depends on
+	 * @param symbols the table of word ids
+	 * @throws IllegalArgumentException if the order is not from 1 to
+	 *             {@link #MAX_ORDER}
+	 */
+	public NGramChain(int order, SymbolTable symbols) {
+		if (order < 1 || order > NGramChain.MAX_ORDER) {
+			throw new IllegalArgumentException("Invalid order " + order);
+		}
+		this.order = order;
+		this.bits = Math.min(32, 64 / order);
+		this.mask =
+				this.bits * order == 64 ? -1L : (1L << this.bits * order) - 1;
+		this.maxId =
+				this.bits == 32 ? Integer.MAX_VALUE : (1 << this.bits) - 1;
+		this.symbols = symbols;
+	}
+
+	/**
+	 * Returns the number of words each word depends on.
+	 *
+	 * @return the order of the chain
+	 */
+	public int getOrder() {
+		return this.order;
+	}
+
+	/**
+	 * Returns the table of word ids.
+	 *
+	 * @return the symbol table
+	 */
+	public SymbolTable getSymbols() {
+		return this.symbols;
+	}
+
+	/**
+	 * Returns the number of different contexts seen, that is sequences of
+	 * order words that were followed by another.
+	 *
+	 * @return the number of contexts
+	 */
+	public int getContexts() {
+		return this.contextCount;
+	}
+
+	/**
+	 * Returns the number of different context and next word pairs seen.
+	 *
+	 * @return the number of transitions
+	 */
+	public int getTransitions() {
+		return this.counts.size();
+	}
+
+	/**
+	 * Learns every run of order + 1 words in the sequence. Words that are new
+	 * are added to the symbol table.
+	 *
+	 * @param words the sequence of words
+	 * @throws IllegalStateException if there are more words than the order
+	 *             can pack into a context
+	 */
+	public void learn(List<String> words) {
+		long context = 0;
+		int filled = 0;
+		for (String word : words) {
+			int id = this.symbols.add(word);
+			if (id > this.maxId) {
+				throw new IllegalStateException("Too many words for order "
+						+ this.order);
+			}
+			if (filled >= this.order) {
+				this.learn(context, id);
+			}
+			else {
+				++filled;
+			}
+			context = this.push(context, id);
+		}
+	}
+
+	/**
+	 * Learns that the word followed the context.
+	 *
+	 * @param context the packed ids of the previous words
+	 * @param next the id of the next word
+	 */
+	public void learn(long context, int next) {
+		int index = this.contextIndex.get(context) - 1;
+		if (index < 0) {
+			index = this.contextCount;
+			if (index == this.contexts.length) {
+				this.contexts = Arrays.copyOf(this.contexts, index * 2);
+			}
+			this.contexts[index] = context;
+			++this.contextCount;
+			this.contextIndex.put(context, index + 1);
+		}
+		this.counts.add((long) index << 32 | next, 1);
+		this.rowStart = null;
+	}
+
+	/**
+	 * Returns the context after the word, which drops the oldest word of the
+	 * given context.
+	 *
+	 * @param context the packed ids of the previous words
+	 * @param id the id of the next word
+	 * @return the context that ends with the next word
+	 */
+	public long push(long context, int id) {
+		return (context << this.bits | id) & this.mask;
+	}
+
+	/**
+	 * Returns the id of the word in the context, where 0 is the most recent
+	 * word.
+	 *
+	 * @param context the packed ids of the previous words
+	 * @param age how many words back the word is, less than the order
+	 * @return the id of the word
+	 */
+	public int getWord(long context, int age) {
+		return (int) (context >>> age * this.bits & this.maxId);
+	}
+
+	/**
+	 * Returns a random context that has been seen, each with the same chance.
+	 *
+	 * @param random the random number generator to use
+	 * @return a context to start generating from
+	 * @throws IllegalStateException if nothing has been learned
+	 */
+	public long randomContext(Random random) {
+		if (this.contextCount == 0) {
+			throw new IllegalStateException("Nothing has been learned");
+		}
+		return this.contexts[random.nextInt(this.contextCount)];
+	}
+
+	/**
+	 * Returns how many times the word followed the context.
+	 *
+	 * @param context the packed ids of the previous words
+	 * @param next the id of the next word
+	 * @return the occurrence count, or 0 if the word never followed it
+	 */
+	public int getCount(long context, int next) {
+		int index = this.contextIndex.get(context) - 1;
+		if (index < 0) {
+			return 0;
+		}
+		return this.counts.get((long) index << 32 | next);
+	}
+
+	/**
+	 * Returns the id of a random word that followed the context. A word is
+	 * returned as often as it was counted.
+	 *
+	 * @param context the packed ids of the previous words
+	 * @param random the random number generator to use
+	 * @return the id of a random next word, or -1 if the context has not been
+	 *         seen
+	 */
+	public int sample(long context, Random random) {
+		int index = this.contextIndex.get(context) - 1;
+		if (index < 0) {
+			return -1;
+		}
+		if (this.rowStart == null) {
+			this.buildSamplingTable();
+		}
+		int start = this.rowStart[index];
+		int i = start + random.nextInt(this.rowStart[index + 1] - start);
+		if (random.nextDouble() < this.aliasChance[i]) {
+			return this.successor[i];
+		}
+		return this.successor[this.alias[i]];
+	}
+
+	/**
+	 * Sorts the counts by context into rows and builds the alias table of
+	 * each row.
+	 */
+	private void buildSamplingTable() {
+		int transitions = this.counts.size();
+		long[] keys = new long[transitions];
+		int n = 0;
+		for (int slot = 0; slot < this.counts.capacity(); ++slot) {
+			if (this.counts.valueAt(slot) != 0) {
+				keys[n++] = this.counts.keyAt(slot);
+			}
+		}
+		Arrays.sort(keys);
+		int[] starts = new int[this.contextCount + 1];
+		int[] successors = new int[transitions];
+		int[] weights = new int[transitions];
+		for (int i = 0; i < transitions; ++i) {
+			++starts[(int) (keys[i] >>> 32) + 1];
+			successors[i] = (int) keys[i];
+			weights[i] = this.counts.get(keys[i]);
+		}
+		for (int i = 0; i < this.contextCount; ++i) {
+			starts[i + 1] += starts[i];
+		}
+		this.aliasChance = new double[transitions];
+		this.alias = new int[transitions];
+		for (int i = 0; i < this.contextCount; ++i) {
+			AliasTable.build(weights, starts[i], starts[i + 1],
+					this.aliasChance, this.alias);
+		}
+		this.successor = successors;
+		this.rowStart = starts;
+	}
+}
@@ -0,0 +1,96 @@
+package markov;
+
+/**
+ * Limits how much a {@link Chain} keeps while it learns. On a large corpus
+ * most transitions are seen only once or twice; they take most of the memory
+ * but are almost never picked when generating. A policy drops them as the
+ * chain learns, so the chain never grows much past its limits:
+ * <ul>
+ * <li>a minimum count, below which a transition is dropped when the chain is
+ * pruned</li>
+ * <li>a number of children per link, above which the children with the
+ * lowest counts are dropped</li>
+ * <li>a budget of transitions for the whole chain, above which the
+ * transitions with the lowest counts are dropped</li>
+ * </ul>
+ * Counts that are dropped are remembered by their links, so how much of the
+ * learned probability mass was lost can be checked with
+ * {@link Chain#getDroppedMass()}.
+ *
+ * @author Ches Burks
+ *
+ */
+public final class PruningPolicy {
+	/**
+	 * Keeps everything. This is the policy of a chain made without one.
+	 */
+	public static final PruningPolicy NONE = new PruningPolicy(1,
+			Integer.MAX_VALUE, Integer.MAX_VALUE);
+
+	private final int minCount;
+	private final int maxChildren;
+	private final int maxTransitions;
+
+	/**
+	 * Creates a policy. Use {@link Integer#MAX_VALUE} for limits that are not
+	 * wanted.
+	 *
+	 * @param minCount the lowest count a transition needs to be kept when the
+	 *            chain is pruned, 1 to keep all of them
+	 * @param maxChildren the most children kept by each link
+	 * @param maxTransitions the most transitions kept by the whole chain
+	 * @throws IllegalArgumentException if a limit is less than 1
+	 */
+	public PruningPolicy(int minCount, int maxChildren, int maxTransitions) {
+		if (minCount < 1 || maxChildren < 1 || maxTransitions < 1) {
+			throw new IllegalArgumentException("Limits must be at least 1");
+		}
+		this.minCount = minCount;
+		this.maxChildren = maxChildren;
+		this.maxTransitions = maxTransitions;
+	}
+
+	/**
+	 * Returns the lowest count a transition needs to survive pruning.
+	 *
+	 * @return the minimum count
+	 */
+	public int getMinCount() {
+		return this.minCount;
+	}
+
+	/**
+	 * Returns the most children kept by each link after it is pruned.
+	 *
+	 * @return the maximum number of children per link
+	 */
+	public int getMaxChildren() {
+		return this.maxChildren;
+	}
+
+	/**
+	 * Returns the most transitions kept by the whole chain.
+	 *
+	 * @return the transition budget
+	 */
+	public int getMaxTransitions() {
+		return this.maxTransitions;
+	}
+
+	/**
+	 * Checks if this policy can drop anything.
+	 *
+	 * @return false if every transition is kept
+	 */
+	public boolean isPruning() {
+		return this.minCount > 1 || this.maxChildren < Integer.MAX_VALUE
+				|| this.maxTransitions < Integer.MAX_VALUE;
+	}
+
+	@Override
+	public String toString() {
+		return "PruningPolicy[minCount=" + this.minCount + ", maxChildren="
+				+ this.maxChildren + ", maxTransitions=" + this.maxTransitions
+				+ "]";
+	}
+}
@@ -6,9 +6,16 @@ import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
 
-import midi.AsciiParser;
+import midi.CorpusLoader;
+import midi.MidiFileParser;
+import midi.Opcode;
 import midi.Song;
+import midi.SongCache;
 
 /**
  * Handles saving chain data to and loading chain data from file.
@@ -17,9 +24,14 @@ import midi.Song;
  *
  */
 public class SaveHandler {
+	private static final String[] PITCH_NAMES = { "C", "C#", "D", "D#", "E",
+			"F", "F#", "G", "G#", "A", "A#", "B" };
 
 	/**
-	 * Reads the stored input from file
+	 * Reads the stored input from file. Both the binary files written by
+	 * {@link #saveChain(Chain, File)} and the text files written by
+	 * {@link #saveChainAsText(Chain, File)} can be read, which one is found
+	 * from the start of the file.
 	 *
 	 * @param toLoad the chain to load to
 	 * @param location the file to load from
@@ -27,6 +39,23 @@ public class SaveHandler {
 	 */
 	public static void loadChainStorageToChain(Chain toLoad, File location)
 			throws Exception {
+		try {
+			if (ChainFile.isChainFile(location)) {
+				ChainFile.read(toLoad, location);
+				toLoad.sortList();
+				return;
+			}
+		}
+		catch (FileNotFoundException e) {
+			e.printStackTrace();
+			return;
+		}
+		catch (IOException e) {
+			e.printStackTrace();
+			toLoad.clear();
+			throw new Exception("Invalid input");
+		}
+
 		BufferedReader in;
 		try {
 			in = new BufferedReader(new FileReader(location));
@@ -42,33 +71,23 @@ public class SaveHandler {
 			int count = 0;
 			String currentString = "";
 			Link newLink = null;
-			char added = 0;
 			try {
-				if (in.ready()) {
-					++count;
-					inputLine = in.readLine();
-					parts = inputLine.split(" ");
-					currentString = parts[0];
-					newLink = new Link(currentString);
-				}
 				while (in.ready()) {
-					added = 0;
 					++count;
 					inputLine = in.readLine();
 					parts = inputLine.split(" ");
-					if (!parts[0].equals(currentString)) {
-						toLoad.add(newLink);
+					if (newLink == null || !parts[0].equals(currentString)) {
+						if (newLink != null) {
+							toLoad.add(newLink);
+						}
 						currentString = parts[0];
 						newLink = new Link(currentString);
-						added = 1;
 					}
 					Child newChild = new Child(parts[1]);
 					newChild.setOccuranceCount(Integer.parseInt(parts[2]));
-					if (newLink != null) {
-						newLink.add(newChild);
-					}
+					newLink.add(newChild);
 				}
-				if (added == 0) {
+				if (newLink != null) {
 					toLoad.add(newLink);
 				}
 
@@ -92,25 +111,177 @@ public class SaveHandler {
 	}
 
 	/**
-	 * Reads a MIDI file, parses it, and creates markov chain data from it. Adds
-	 * the data to the chain.
+	 * Reads a MIDI file and parses it. The song can be learned into a chain
+	 * with {@link #learnSong(ChainLearner, Song)}. Files that were parsed
+	 * before are read from the {@link SongCache} instead. Standard MIDI files
+	 * (.mid) are read directly with {@link MidiFileParser}.
 	 *
 	 * @param location the file to load from
-	 * @return the song that was loaded from the midi text file
+	 * @return the song that was loaded from the midi file
 	 */
 	public static Song loadSong(File location) {
 		Song song;
-		song = AsciiParser.parse(location);
+		String name = location.getName().toLowerCase();
+		if (name.endsWith(".mid") || name.endsWith(".midi")) {
+			song = MidiFileParser.parse(location);
+		}
+		else {
+			song = SongCache.load(location);
+		}
 		return song;
 	}
 
 	/**
-	 * Stores the chain in a file.
+	 * Reads every MIDI text file in a directory, parsing them in parallel on
+	 * all processors.
+	 *
+	 * @param directory the directory to load from
+	 * @return the songs that were loaded, in order of file name
+	 * @throws IOException if the directory cannot be read
+	 */
+	public static List<Song> loadSongs(File directory) throws IOException {
+		return CorpusLoader.load(directory);
+	}
+
+	/**
+	 * Reads every MIDI text file in a directory, parsing them in parallel on
+	 * all processors, and learns the notes of each song into the chain as it
+	 * is loaded. The chain is only learned into from the calling thread.
+	 *
+	 * @param learner the chain to learn into
+	 * @param directory the directory to load from
+	 * @return the number of songs learned
+	 * @throws IOException if the directory cannot be read
+	 */
+	public static int learnSongs(ChainLearner learner, File directory)
+			throws IOException {
+		int[] songs = new int[1];
+		ForkJoinPool pool = new ForkJoinPool();
+		try {
+			CorpusLoader.load(directory, pool, song -> {
+				SaveHandler.learnSong(learner, song);
+				++songs[0];
+			});
+		}
+		finally {
+			pool.shutdown();
+		}
+		return songs[0];
+	}
+
+	/**
+	 * Learns the notes of the song into the chain, each note as a word
+	 * following the one before it. The words are the ones returned by
+	 * {@link #getNoteWords(Song)}.
+	 *
+	 * @param learner the chain to learn into
+	 * @param song the song to learn
+	 */
+	public static void learnSong(ChainLearner learner, Song song) {
+		List<String> words = SaveHandler.getNoteWords(song);
+		for (int i = 1; i < words.size(); ++i) {
+			learner.learnWordLink(words.get(i - 1), words.get(i));
+		}
+	}
+
+	/**
+	 * Returns the notes of the song in order of tick, as the words a chain
+	 * learns. Notes on the same tick keep their order in the song, and the
+	 * song itself is not changed. Each word is the pitch of the note, spelled
+	 * with sharps, and its length joined by an underscore, such as
+	 * <code>F#--_31/96</code>. The velocities are left out, and the pitch is
+	 * built from the key number, so the same note spelled with a flat is the
+	 * same word.
+	 *
+	 * @param song the song to read
+	 * @return the words of the notes
+	 */
+	public static List<String> getNoteWords(Song song) {
+		long[] notes = new long[song.size()];
+		int count = 0;
+		for (int i = 0; i < song.size(); ++i) {
+			if (song.getOpcode(i) == Opcode.NOTE) {
+				// the index in the low bits keeps equal ticks in order
+				notes[count++] = (long) song.getTick(i) << 32 | i;
+			}
+		}
+		Arrays.sort(notes, 0, count);
+		List<String> words = new ArrayList<>(count);
+		StringBuilder word = new StringBuilder();
+		for (int n = 0; n < count; ++n) {
+			int i = (int) notes[n];
+			word.setLength(0);
+			SaveHandler.appendPitch(song.getFirstOperand(i), word);
+			word.append('_');
+			SaveHandler.appendLength(song.getInstruction(i), word);
+			words.add(word.toString().intern());
+		}
+		return words;
+	}
+
+	/**
+	 * Appends the name of the MIDI key the way mid2asc.exe writes it, with a
+	 * ' for each octave above the one starting at middle C and a - for each
+	 * octave below it.
+	 */
+	private static void appendPitch(int key, StringBuilder out) {
+		out.append(SaveHandler.PITCH_NAMES[Math.floorMod(key, 12)]);
+		int octave = Math.floorDiv(key - 60, 12);
+		for (int i = 0; i < octave; ++i) {
+			out.append('\'');
+		}
+		for (int i = 0; i > octave; --i) {
+			out.append('-');
+		}
+	}
+
+	/**
+	 * Appends the length of the note from the text of its instruction, which
+	 * is the third group of characters after <code>NT</code> and the pitch.
+	 */
+	private static void appendLength(String instruction, StringBuilder out) {
+		int i = 0;
+		for (int group = 0; group < 2; ++group) {
+			while (i < instruction.length() && instruction.charAt(i) != ' ') {
+				++i;
+			}
+			while (i < instruction.length() && instruction.charAt(i) == ' ') {
+				++i;
+			}
+		}
+		int start = i;
+		while (i < instruction.length() && instruction.charAt(i) != ' ') {
+			++i;
+		}
+		out.append(instruction, start, i);
+	}
+
+	/**
+	 * Stores the chain in a file, in a compact binary form. This writes the
+	 * whole chain, {@link ChainJournal} saves only what changed.
 	 *
 	 * @param toSave the chain to save
 	 * @param location the file to store the data in
 	 */
 	public static void saveChain(Chain toSave, File location) {
+		try {
+			ChainFile.write(toSave, location);
+		}
+		catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Stores the chain in a text file, with a line of the first word, the
+	 * second word and the count for each pair of words. This is the format
+	 * chains were saved in before {@link #saveChain(Chain, File)} wrote binary
+	 * files.
+	 *
+	 * @param toSave the chain to save
+	 * @param location the file to store the data in
+	 */
+	public static void saveChainAsText(Chain toSave, File location) {
 		PrintWriter out;
 		try {
 			out = new PrintWriter(location);
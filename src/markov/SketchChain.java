@@ -0,0 +1,361 @@
+package markov;
+
+/**
+ * Estimates transition counts in a fixed amount of memory, however much is
+ * learned. It is meant for trying out corpora too large to count exactly with
+ * a {@link Chain}.
+ * <p>
+ * Every transition is counted in a Count-Min sketch: <i>depth</i> rows of
+ * <i>width</i> counters, where each transition adds to one counter per row
+ * chosen by a hash of its two words, and its estimate is the lowest of its
+ * counters. Only the counters that are at that lowest value are increased
+ * (conservative update), which keeps the bounds below and makes the
+ * estimates tighter. After <i>N</i> transitions have been learned, the
+ * estimate of a transition is:
+ * <ul>
+ * <li>never less than its true count</li>
+ * <li>no more than its true count plus <i>e N / width</i>, with a chance of
+ * at least <i>1 - e<sup>-depth</sup></i>, see {@link #getErrorBound()}</li>
+ * </ul>
+ * The sketch does not remember which words it saw, so the transitions
+ * actually kept for {@link #toChain()} are tracked apart from it, in a table
+ * of a fixed number of heavy hitters. A transition that is not kept replaces
+ * the kept transition with the lowest estimate once its own estimate is
+ * higher, as in the Space-Saving algorithm, so transitions seen often enough
+ * are always kept and ones that stop being seen make way for new ones.
+ * <p>
+ * Learning and reading lock the whole sketch, so many threads can use it at
+ * once but they do not learn in parallel.
+ *
+ * @author Ches Burks
+ *
+ */
+public class SketchChain implements ChainLearner {
+	/**
+	 * The most counters in the sketch, and the most transitions kept
+	 */
+	private static final int MAX_SIZE = 1 << 28;
+
+	private final int width;
+	private final int depth;
+	/**
+	 * The rows of counters, one after the other
+	 */
+	private final int[] sketch;
+	private long total;
+
+	/*
+	 * The kept transitions, in a heap with the lowest count first.
+	 */
+	private final String[] firsts;
+	private final String[] seconds;
+	private final int[] counts;
+	/**
+	 * The slot of the index each heap entry is in
+	 */
+	private final int[] slots;
+	private int size;
+	/**
+	 * An open addressing table of heap positions plus 1, or 0 for an empty
+	 * slot, by the hash of the transition
+	 */
+	private final int[] index;
+
+	/**
+	 * Creates a sketch with the given error bounds, see the class
+	 * description. The width is rounded up to a power of two, so the error
+	 * can be lower than asked for.
+	 *
+	 * @param epsilon the most an estimate may be too high by, as a part of
+	 *            the number of transitions learned
+	 * @param delta the chance an estimate is too high by more than that
+	 * @param capacity the number of transitions kept for {@link #toChain()}
+	 * @throws IllegalArgumentException if epsilon or delta are not between 0
+	 *             and 1, the sketch would be too large or the capacity is
+	 *             less than 1 or too large
+	 */
+	public SketchChain(double epsilon, double delta, int capacity) {
+		if (!(epsilon > 0 && epsilon < 1) || !(delta > 0 && delta < 1)) {
+			throw new IllegalArgumentException(
+					"Epsilon and delta must be between 0 and 1");
+		}
+		if (capacity < 1 || capacity > SketchChain.MAX_SIZE) {
+			throw new IllegalArgumentException("Invalid capacity " + capacity);
+		}
+		double minWidth = Math.ceil(Math.E / epsilon);
+		double rows = Math.max(1, Math.ceil(Math.log(1 / delta)));
+		if (minWidth * rows > SketchChain.MAX_SIZE) {
+			throw new IllegalArgumentException(
+					"Epsilon and delta are too small");
+		}
+		int columns = 1;
+		while (columns < minWidth) {
+			columns *= 2;
+		}
+		this.width = columns;
+		this.depth = (int) rows;
+		this.sketch = new int[this.width * this.depth];
+		this.firsts = new String[capacity];
+		this.seconds = new String[capacity];
+		this.counts = new int[capacity];
+		this.slots = new int[capacity];
+		int indexSize = 2;
+		while (indexSize < capacity * 2) {
+			indexSize *= 2;
+		}
+		this.index = new int[indexSize];
+	}
+
+	@Override
+	public synchronized void learnWordLink(String first, String second) {
+		long hash = SketchChain.hash(first, second);
+		int estimate = this.increment(hash);
+		++this.total;
+		int slot = this.find(first, second, hash);
+		if (this.index[slot] != 0) {
+			int position = this.index[slot] - 1;
+			this.counts[position] = estimate;
+			this.siftDown(position);
+			return;
+		}
+		if (this.size < this.counts.length) {
+			int position = this.size++;
+			this.set(position, first, second, estimate, slot);
+			this.siftUp(position);
+			return;
+		}
+		if (estimate > this.counts[0]) {
+			this.removeFromIndex(this.slots[0]);
+			slot = this.find(first, second, hash);
+			this.set(0, first, second, estimate, slot);
+			this.siftDown(0);
+		}
+	}
+
+	@Override
+	public synchronized int getCount(String first, String second) {
+		return this.estimate(SketchChain.hash(first, second));
+	}
+
+	/**
+	 * Returns a chain of the transitions kept, each with its current
+	 * estimate as its count.
+	 *
+	 * @return a new chain of the heavy hitters
+	 */
+	@Override
+	public synchronized Chain toChain() {
+		Chain chain = new Chain();
+		for (int i = 0; i < this.size; ++i) {
+			Link link = chain.getLink(this.firsts[i]);
+			if (link == null) {
+				link = new Link(this.firsts[i]);
+				chain.add(link);
+			}
+			link.setCount(this.seconds[i],
+					this.getCount(this.firsts[i], this.seconds[i]));
+		}
+		return chain;
+	}
+
+	/**
+	 * Returns the number of transitions learned, counting repeats.
+	 *
+	 * @return the total count
+	 */
+	public synchronized long getTotalCount() {
+		return this.total;
+	}
+
+	/**
+	 * Returns how much an estimate can be too high by, with a chance of at
+	 * least <i>1 - e<sup>-depth</sup></i>, given what has been learned so
+	 * far.
+	 *
+	 * @return the error bound of a count
+	 */
+	public synchronized long getErrorBound() {
+		return (long) Math.ceil(Math.E * this.total / this.width);
+	}
+
+	/**
+	 * Returns the number of counters in each row of the sketch.
+	 *
+	 * @return the width
+	 */
+	public int getWidth() {
+		return this.width;
+	}
+
+	/**
+	 * Returns the number of rows of the sketch.
+	 *
+	 * @return the depth
+	 */
+	public int getDepth() {
+		return this.depth;
+	}
+
+	/**
+	 * Returns the most transitions that are kept.
+	 *
+	 * @return the capacity
+	 */
+	public int getCapacity() {
+		return this.counts.length;
+	}
+
+	/**
+	 * Returns the number of transitions kept.
+	 *
+	 * @return the number of heavy hitters
+	 */
+	public synchronized int size() {
+		return this.size;
+	}
+
+	/**
+	 * Returns the lowest counter of the transition.
+	 */
+	private int estimate(long hash) {
+		int estimate = Integer.MAX_VALUE;
+		for (int row = 0; row < this.depth; ++row) {
+			estimate = Math.min(estimate, this.sketch[this.counter(hash, row)]);
+		}
+		return estimate;
+	}
+
+	/**
+	 * Adds one to the counters of the transition that are at its estimate,
+	 * and returns the new estimate.
+	 */
+	private int increment(long hash) {
+		int estimate = this.estimate(hash);
+		if (estimate == Integer.MAX_VALUE) {
+			return estimate;
+		}
+		for (int row = 0; row < this.depth; ++row) {
+			int counter = this.counter(hash, row);
+			if (this.sketch[counter] == estimate) {
+				this.sketch[counter] = estimate + 1;
+			}
+		}
+		return estimate + 1;
+	}
+
+	/**
+	 * Returns the position in the sketch of the transition's counter in the
+	 * given row, using double hashing to pick a different column per row.
+	 */
+	private int counter(long hash, int row) {
+		int column = (int) hash + row * ((int) (hash >>> 32) | 1);
+		return row * this.width + (column & (this.width - 1));
+	}
+
+	/**
+	 * Returns the slot of the index holding the transition, or the empty
+	 * slot it would go in.
+	 */
+	private int find(String first, String second, long hash) {
+		int mask = this.index.length - 1;
+		int slot = SketchChain.home(hash, mask);
+		while (this.index[slot] != 0) {
+			int position = this.index[slot] - 1;
+			if (this.firsts[position].equals(first)
+					&& this.seconds[position].equals(second)) {
+				return slot;
+			}
+			slot = (slot + 1) & mask;
+		}
+		return slot;
+	}
+
+	/**
+	 * Empties the slot of the index, moving later entries of the same run
+	 * back so they can still be found.
+	 */
+	private void removeFromIndex(int slot) {
+		int mask = this.index.length - 1;
+		int hole = slot;
+		int next = (hole + 1) & mask;
+		while (this.index[next] != 0) {
+			int position = this.index[next] - 1;
+			int home =
+					SketchChain.home(SketchChain.hash(this.firsts[position],
+							this.seconds[position]), mask);
+			if (((next - home) & mask) >= ((next - hole) & mask)) {
+				this.index[hole] = this.index[next];
+				this.slots[position] = hole;
+				hole = next;
+			}
+			next = (next + 1) & mask;
+		}
+		this.index[hole] = 0;
+	}
+
+	private void set(int position, String first, String second, int count,
+			int slot) {
+		this.firsts[position] = first;
+		this.seconds[position] = second;
+		this.counts[position] = count;
+		this.slots[position] = slot;
+		this.index[slot] = position + 1;
+	}
+
+	private void siftUp(int position) {
+		while (position > 0) {
+			int parent = (position - 1) / 2;
+			if (this.counts[parent] <= this.counts[position]) {
+				return;
+			}
+			this.swap(parent, position);
+			position = parent;
+		}
+	}
+
+	private void siftDown(int position) {
+		while (true) {
+			int child = position * 2 + 1;
+			if (child >= this.size) {
+				return;
+			}
+			if (child + 1 < this.size
+					&& this.counts[child + 1] < this.counts[child]) {
+				++child;
+			}
+			if (this.counts[position] <= this.counts[child]) {
+				return;
+			}
+			this.swap(position, child);
+			position = child;
+		}
+	}
+
+	private void swap(int a, int b) {
+		String first = this.firsts[a];
+		String second = this.seconds[a];
+		int count = this.counts[a];
+		int slot = this.slots[a];
+		this.set(a, this.firsts[b], this.seconds[b], this.counts[b],
+				this.slots[b]);
+		this.set(b, first, second, count, slot);
+	}
+
+	private static int home(long hash, int mask) {
+		return (int) (hash >>> 32) & mask;
+	}
+
+	/**
+	 * Mixes the hashes of both words into 64 bits, with the finalizer of
+	 * MurmurHash3.
+	 */
+	private static long hash(String first, String second) {
+		long hash = first.hashCode() * 0x9E3779B97F4A7C15L + second.hashCode();
+		hash ^= hash >>> 33;
+		hash *= 0xFF51AFD7ED558CCDL;
+		hash ^= hash >>> 33;
+		hash *= 0xC4CEB9FE1A85EC53L;
+		hash ^= hash >>> 33;
+		return hash;
+	}
+}
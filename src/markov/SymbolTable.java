@@ -0,0 +1,66 @@
+package markov;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Gives each distinct word a dense int id, starting at 0 in the order the
+ * words are added. Each word is stored once, however many links refer to it,
+ * so models can refer to words by id instead of holding their own copies.
+ *
+ * @author Ches Burks
+ *
+ */
+public class SymbolTable {
+	private final HashMap<String, Integer> ids = new HashMap<>();
+	private final ArrayList<String> symbols = new ArrayList<>();
+
+	/**
+	 * Returns the id of the word, giving it the next id if it does not have
+	 * one yet.
+	 *
+	 * @param word the word
+	 * @return the id of the word
+	 */
+	public int add(String word) {
+		Integer id = this.ids.get(word);
+		if (id != null) {
+			return id;
+		}
+		int newId = this.symbols.size();
+		this.symbols.add(word);
+		this.ids.put(word, newId);
+		return newId;
+	}
+
+	/**
+	 * Returns the id of the word.
+	 *
+	 * @param word the word
+	 * @return the id of the word, or -1 if it has not been added
+	 */
+	public int getId(String word) {
+		Integer id = this.ids.get(word);
+		return id == null ? -1 : id;
+	}
+
+	/**
+	 * Returns the word with the given id.
+	 *
+	 * @param id the id of a word
+	 * @return the word
+	 * @throws IndexOutOfBoundsException if no word has the id
+	 */
+	public String getSymbol(int id) {
+		return this.symbols.get(id);
+	}
+
+	/**
+	 * Returns the number of words, which is one more than the highest id.
+	 *
+	 * @return the number of words
+	 */
+	public int size() {
+		return this.symbols.size();
+	}
+}
@@ -0,0 +1,177 @@
+package markov;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * A frozen copy of a {@link Chain}, stored as a compressed sparse row matrix
+ * of word ids. The successors of the word with id i are at the indices from
+ * {@link #getRowStart(int) rowStart[i]} up to rowStart[i + 1] of the
+ * successor and count arrays, in order of id. Each row also has an alias
+ * table, so picking a random successor is a few array reads.
+ * <p>
+ * Every word of the chain has an id, both the words with a link and the words
+ * that only follow others. Words with a link come first, in sorted order.
+ * Successors with a count of 0 are left out. The matrix can't be changed
+ * once built, and can be read by many threads at once.
+ *
+ * @author Ches Burks
+ *
+ */
+public class TransitionMatrix {
+	private final SymbolTable symbols;
+	private final int[] rowStart;
+	private final int[] successor;
+	private final int[] count;
+	private final double[] aliasChance;
+	private final int[] alias;
+
+	/**
+	 * Builds the matrix from the current contents of the chain.
+	 *
+	 * @param chain the chain to copy
+	 */
+	public TransitionMatrix(Chain chain) {
+		this.symbols = new SymbolTable();
+		List<Link> links = chain.getKnownWords();
+		int transitions = 0;
+		for (Link link : links) {
+			this.symbols.add(link.getWord());
+			transitions += link.size();
+		}
+		int rows = links.size();
+		int[] starts = new int[rows + 1];
+		int[] successors = new int[transitions];
+		int[] counts = new int[transitions];
+		long[] sorter = new long[0];
+		int index = 0;
+		for (int row = 0; row < rows; ++row) {
+			starts[row] = index;
+			List<Child> children = links.get(row).getList();
+			if (sorter.length < children.size()) {
+				sorter = new long[children.size()];
+			}
+			int n = 0;
+			for (Child child : children) {
+				if (child.getOccuranceCount() > 0) {
+					long id = this.symbols.add(child.getWord());
+					sorter[n++] = id << 32 | child.getOccuranceCount();
+				}
+			}
+			Arrays.sort(sorter, 0, n);
+			for (int i = 0; i < n; ++i) {
+				successors[index] = (int) (sorter[i] >>> 32);
+				counts[index] = (int) sorter[i];
+				++index;
+			}
+		}
+		starts[rows] = index;
+		// words that only follow others have empty rows
+		this.rowStart = Arrays.copyOf(starts, this.symbols.size() + 1);
+		Arrays.fill(this.rowStart, rows + 1, this.rowStart.length, index);
+		this.successor = Arrays.copyOf(successors, index);
+		this.count = Arrays.copyOf(counts, index);
+		this.aliasChance = new double[index];
+		this.alias = new int[index];
+		for (int row = 0; row < rows; ++row) {
+			if (starts[row] < starts[row + 1]) {
+				AliasTable.build(this.count, starts[row], starts[row + 1],
+						this.aliasChance, this.alias);
+			}
+		}
+	}
+
+	/**
+	 * Returns the table of words and their ids.
+	 *
+	 * @return the symbol table
+	 */
+	public SymbolTable getSymbols() {
+		return this.symbols;
+	}
+
+	/**
+	 * Returns the number of words, which is the number of rows.
+	 *
+	 * @return the number of words
+	 */
+	public int size() {
+		return this.symbols.size();
+	}
+
+	/**
+	 * Returns the number of successors stored over all rows.
+	 *
+	 * @return the number of transitions
+	 */
+	public int getTransitions() {
+		return this.successor.length;
+	}
+
+	/**
+	 * Returns the index of the first successor of the word. The successors of
+	 * the word end at the start of the next row.
+	 *
+	 * @param id the id of the word
+	 * @return the index of its first successor
+	 */
+	public int getRowStart(int id) {
+		return this.rowStart[id];
+	}
+
+	/**
+	 * Returns the id of the successor at the index.
+	 *
+	 * @param index the index of a successor
+	 * @return the id of the following word
+	 */
+	public int getSuccessor(int index) {
+		return this.successor[index];
+	}
+
+	/**
+	 * Returns the occurrence count of the successor at the index.
+	 *
+	 * @param index the index of a successor
+	 * @return how often it followed the word of its row
+	 */
+	public int getCount(int index) {
+		return this.count[index];
+	}
+
+	/**
+	 * Returns how many times one word followed another.
+	 *
+	 * @param from the id of the first word
+	 * @param to the id of the word after it
+	 * @return the occurrence count, or 0 if to never followed from
+	 */
+	public int getCount(int from, int to) {
+		int index =
+				Arrays.binarySearch(this.successor, this.rowStart[from],
+						this.rowStart[from + 1], to);
+		return index < 0 ? 0 : this.count[index];
+	}
+
+	/**
+	 * Returns the id of a random word that has followed the given one. A word
+	 * is returned as often as it was counted.
+	 *
+	 * @param id the id of the current word
+	 * @param random the random number generator to use
+	 * @return the id of a random successor, or -1 if no word has followed it
+	 */
+	public int sample(int id, Random random) {
+		int start = this.rowStart[id];
+		int n = this.rowStart[id + 1] - start;
+		if (n == 0) {
+			return -1;
+		}
+		int i = start + random.nextInt(n);
+		if (random.nextDouble() < this.aliasChance[i]) {
+			return this.successor[i];
+		}
+		return this.successor[this.alias[i]];
+	}
+}
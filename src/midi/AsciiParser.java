@@ -2,12 +2,9 @@ package midi;
 
 import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.IOException;
-import java.util.ArrayDeque;
-import java.util.HashMap;
-import java.util.HashSet;
+import java.io.UncheckedIOException;
 
 /**
  * Parses the data from mid2asc.exe output files into a form the program can
@@ -18,6 +15,101 @@ import java.util.HashSet;
  */
 public class AsciiParser {
 
+	/**
+	 * Opens the file and returns an iterator that parses its lines as they are
+	 * read. This lets large files be processed without holding the whole song
+	 * in memory. The caller should close the iterator if it does not read it
+	 * to the end.
+	 *
+	 * @param input the file to read
+	 * @return an iterator over the valid piano lines in the file
+	 * @throws IOException if the file cannot be opened or has an invalid
+	 *             header
+	 */
+	public static LineIterator open(File input) throws IOException {
+		return AsciiParser.open(input, new ParseDiagnostics());
+	}
+
+	/**
+	 * Works like {@link #open(File)} but counts the lines in the given
+	 * diagnostics.
+	 *
+	 * @param input the file to read
+	 * @param diagnostics where to count the lines that are read
+	 * @return an iterator over the valid piano lines in the file
+	 * @throws IOException if the file cannot be opened or has an invalid
+	 *             header
+	 */
+	public static LineIterator open(File input, ParseDiagnostics diagnostics)
+			throws IOException {
+		return AsciiParser.open(input, LineFilter.PIANO, diagnostics);
+	}
+
+	/**
+	 * Works like {@link #open(File, ParseDiagnostics)} but keeps the lines
+	 * the given filter accepts instead of only piano lines.
+	 *
+	 * @param input the file to read
+	 * @param filter which lines to keep
+	 * @param diagnostics where to count the lines that are read
+	 * @return an iterator over the lines in the file the filter keeps
+	 * @throws IOException if the file cannot be opened or has an invalid
+	 *             header
+	 */
+	public static LineIterator open(File input, LineFilter filter,
+			ParseDiagnostics diagnostics) throws IOException {
+		return new LineIterator(new LineSource.Reader(new BufferedReader(
+				new FileReader(input))), filter, diagnostics);
+	}
+
+	/**
+	 * Works like {@link #open(File)} but memory maps the file and parses the
+	 * lines directly from the mapped bytes. No String is created for a line
+	 * unless it is kept, which makes this the faster choice for loading many
+	 * files. Bytes outside of ASCII are read as ISO-8859-1 rather than with
+	 * the platform encoding.
+	 *
+	 * @param input the file to read
+	 * @return an iterator over the valid piano lines in the file
+	 * @throws IOException if the file cannot be mapped or has an invalid
+	 *             header
+	 */
+	public static LineIterator openMapped(File input) throws IOException {
+		return AsciiParser.openMapped(input, new ParseDiagnostics());
+	}
+
+	/**
+	 * Works like {@link #openMapped(File)} but counts the lines in the given
+	 * diagnostics.
+	 *
+	 * @param input the file to read
+	 * @param diagnostics where to count the lines that are read
+	 * @return an iterator over the valid piano lines in the file
+	 * @throws IOException if the file cannot be mapped or has an invalid
+	 *             header
+	 */
+	public static LineIterator openMapped(File input,
+			ParseDiagnostics diagnostics) throws IOException {
+		return AsciiParser.openMapped(input, LineFilter.PIANO, diagnostics);
+	}
+
+	/**
+	 * Works like {@link #openMapped(File, ParseDiagnostics)} but keeps the
+	 * lines the given filter accepts instead of only piano lines.
+	 *
+	 * @param input the file to read
+	 * @param filter which lines to keep
+	 * @param diagnostics where to count the lines that are read
+	 * @return an iterator over the lines in the file the filter keeps
+	 * @throws IOException if the file cannot be mapped or has an invalid
+	 *             header
+	 */
+	public static LineIterator openMapped(File input, LineFilter filter,
+			ParseDiagnostics diagnostics) throws IOException {
+		return new LineIterator(new MappedLineSource(input), filter,
+				diagnostics);
+	}
+
 	/**
 	 * Takes an input file and creates a song from the contents and returns it.
 	 * If the file is not valid or it cannot be read for some reason, null is
@@ -28,97 +120,120 @@ public class AsciiParser {
 	 *         one
 	 */
 	public static Song parse(File input) {
-		FileReader fReader;
-		try {
-			fReader = new FileReader(input);
-		}
-		catch (FileNotFoundException e) {
-			e.printStackTrace();
-			return null;
-		}
-		BufferedReader reader = new BufferedReader(fReader);
-		String line;
-
-		int format;
-		int tracks;
-		int division;
-		ArrayDeque<Line> songLines = new ArrayDeque<>();
-		ArrayDeque<Line> parsedLines = new ArrayDeque<>();
-
-		try {
-			line = reader.readLine();
-			line = line.replaceFirst("format=", "");
-			format = Integer.parseInt(line.substring(0, line.indexOf(" ")));
-			line = line.substring(line.indexOf("tracks=") + 7);
-			tracks = Integer.parseInt(line.substring(0, line.indexOf(" ")));
-			line = line.substring(line.indexOf("division=") + 9);
-			division = Integer.parseInt(line);
-
-			// Scan in the rest of the lines
-			line = reader.readLine();
-			while (line != null) {
-				if (line.isEmpty()) {
-					line = reader.readLine();
-					continue;
-				}
-				else if (line.startsWith("#")) {
-					// its a comment
-					// TODO handle these for track separated
-				}
-				else {
-					Line l1 = new Line(line);
-					songLines.add(l1);
-				}
-				line = reader.readLine();
-			}
-			reader.close();
+		return AsciiParser.parse(input, new ParseDiagnostics());
+	}
+
+	/**
+	 * Works like {@link #parse(File)} and records the lines read, the lines
+	 * rejected and the time taken in the given diagnostics.
+	 *
+	 * @param input the file to read input from to create a Song.
+	 * @param diagnostics where to record what happened
+	 * @return the newly created song, or null if there was a problem creating
+	 *         one
+	 */
+	public static Song parse(File input, ParseDiagnostics diagnostics) {
+		return AsciiParser.parse(input, LineFilter.PIANO, diagnostics);
+	}
 
+	/**
+	 * Works like {@link #parse(File, ParseDiagnostics)} but keeps the lines
+	 * the given filter accepts instead of only piano lines.
+	 *
+	 * @param input the file to read input from to create a Song.
+	 * @param filter which lines to keep
+	 * @param diagnostics where to record what happened
+	 * @return the newly created song, or null if there was a problem creating
+	 *         one
+	 */
+	public static Song parse(File input, LineFilter filter,
+			ParseDiagnostics diagnostics) {
+		return AsciiParser.parse(input, false, filter, diagnostics);
+	}
+
+	/**
+	 * Creates a song from the file the same way {@link #parse(File)} does, but
+	 * reads it through a memory mapping. See {@link #openMapped(File)}.
+	 *
+	 * @param input the file to read input from to create a Song.
+	 * @return the newly created song, or null if there was a problem creating
+	 *         one
+	 */
+	public static Song parseMapped(File input) {
+		return AsciiParser.parseMapped(input, new ParseDiagnostics());
+	}
+
+	/**
+	 * Works like {@link #parseMapped(File)} and records the lines read, the
+	 * lines rejected and the time taken in the given diagnostics.
+	 *
+	 * @param input the file to read input from to create a Song.
+	 * @param diagnostics where to record what happened
+	 * @return the newly created song, or null if there was a problem creating
+	 *         one
+	 */
+	public static Song parseMapped(File input, ParseDiagnostics diagnostics) {
+		return AsciiParser.parseMapped(input, LineFilter.PIANO, diagnostics);
+	}
+
+	/**
+	 * Works like {@link #parseMapped(File, ParseDiagnostics)} but keeps the
+	 * lines the given filter accepts instead of only piano lines.
+	 *
+	 * @param input the file to read input from to create a Song.
+	 * @param filter which lines to keep
+	 * @param diagnostics where to record what happened
+	 * @return the newly created song, or null if there was a problem creating
+	 *         one
+	 */
+	public static Song parseMapped(File input, LineFilter filter,
+			ParseDiagnostics diagnostics) {
+		return AsciiParser.parse(input, true, filter, diagnostics);
+	}
+
+	private static Song parse(File input, boolean mapped, LineFilter filter,
+			ParseDiagnostics diagnostics) {
+		diagnostics.fileParsed(input);
+		long start = System.nanoTime();
+		try (LineIterator lines =
+				mapped ? AsciiParser.openMapped(input, filter, diagnostics)
+						: AsciiParser.open(input, filter, diagnostics)) {
+			diagnostics.addTime(ParseDiagnostics.Phase.OPEN, System.nanoTime()
+					- start);
+			return AsciiParser.readSong(lines, diagnostics);
 		}
-		catch (IOException e) {
-			e.printStackTrace();
+		catch (IOException | UncheckedIOException e) {
+			diagnostics.fileFailed(input, e);
 			return null;
 		}
+	}
 
-		HashMap<Integer, HashSet<Integer>> ignoredChannels = new HashMap<>();
-		// parse the lines
-		while (!songLines.isEmpty()) {
-			Line l1 = songLines.remove();
-			l1.process();
-			if (l1.getBar() == -1 || l1.getChannel() == -1
-					|| l1.getCrotchet() == -1 || l1.getTrack() == -1
-					|| l1.getInstruction() == "") {
-				l1.printData();
-				continue;// invalid line
-			}
-			if (l1.getInstruction().matches(Line.regexInstrInstrument)) {
-				String inst = l1.getInstruction();
-				inst = inst.replaceFirst("Instrument +", "");
-				int instrumentID = Integer.parseInt(inst);
-				if (instrumentID < 1 || instrumentID > 8) {// Not a piano
-					if (!ignoredChannels.containsKey(l1.getTrack())) {
-						ignoredChannels.put(l1.getTrack(), new HashSet<>());
-					}
-					// will not add twice
-					ignoredChannels.get(l1.getTrack()).add(l1.getChannel());
-					continue;// stop reading this line
-				}
+	/**
+	 * Creates a song from the header and all the lines of the iterator.
+	 *
+	 * @param lines the lines to read
+	 * @param diagnostics where to record what happened
+	 * @return the new song
+	 */
+	private static Song readSong(LineIterator lines,
+			ParseDiagnostics diagnostics) {
+		Song song = lines.createSong();
+		diagnostics.startLines();
+		while (lines.hasNext()) {
+			Line line = lines.next();
+			if (diagnostics.timeStore()) {
+				long start = System.nanoTime();
+				song.addLine(line);
+				diagnostics.storeTimed(System.nanoTime() - start);
 			}
-			if (ignoredChannels.containsKey(l1.getTrack())) {
-				if (ignoredChannels.get(l1.getTrack())
-						.contains(l1.getChannel())) {
-					continue;// Don't bother storing non-piano instruments
-				}
+			else {
+				song.addLine(line);
 			}
-			parsedLines.add(l1);
+			diagnostics.kept(line.getOpcode());
 		}
-
-		// Create the song
-		Song song = new Song(format, tracks, division);
-
-		while (!parsedLines.isEmpty()) {
-			song.addLine(parsedLines.remove());
-		}
-
+		long start = System.nanoTime();
+		song.trimToSize();
+		diagnostics.endLines(System.nanoTime() - start);
 		return song;
 	}
 }
@@ -0,0 +1,91 @@
+package midi;
+
+/**
+ * Applies a {@link LineFilter} to the lines of one song, keeping track of the
+ * channels that have been dropped because their instrument was not accepted.
+ * Once a channel is dropped its lines can be turned away from the track and
+ * channel alone, before the instruction is read.
+ * <p>
+ * A channel filter holds state for a single song, so a new one is needed for
+ * each.
+ *
+ * @author Ches Burks
+ *
+ */
+final class ChannelFilter {
+	/**
+	 * Tracks and channels are stored in a byte each, so only those from 0 to
+	 * 255 can be dropped.
+	 */
+	private static final int LIMIT = 256;
+
+	private final LineFilter filter;
+	/**
+	 * One bit per channel for each track, set if the channel is not playing
+	 * an accepted instrument.
+	 */
+	private final long[] ignoredChannels =
+			new long[ChannelFilter.LIMIT * ChannelFilter.LIMIT / 64];
+
+	/**
+	 * Creates a channel filter for a new song.
+	 *
+	 * @param filter the filter to apply
+	 */
+	ChannelFilter(LineFilter filter) {
+		this.filter = filter;
+	}
+
+	/**
+	 * Checks if lines on the given track and channel could be kept, before
+	 * the rest of the line is read.
+	 *
+	 * @param track the track of the line
+	 * @param channel the channel of the line
+	 * @return true if the line should be read
+	 */
+	boolean acceptChannel(int track, int channel) {
+		return !this.isIgnored(track, channel)
+				&& this.filter.acceptChannel(track, channel);
+	}
+
+	/**
+	 * Checks if the valid line should be kept, and drops its channel if it
+	 * changes the instrument to one that is not accepted.
+	 *
+	 * @param l1 the processed line
+	 * @return true if the line should be kept
+	 */
+	boolean accept(Line l1) {
+		if (l1.getOpcode() == Opcode.TIME_SIGNATURE) {
+			return true;// needed to work out the time of later lines
+		}
+		if (!this.acceptChannel(l1.getTrack(), l1.getChannel())) {
+			return false;
+		}
+		if (l1.getOpcode() == Opcode.INSTRUMENT
+				&& !this.filter.acceptInstrument(l1.getFirstOperand())) {
+			this.ignore(l1.getTrack(), l1.getChannel());
+			return false;// stop reading this line
+		}
+		return this.filter.acceptOpcode(l1.getOpcode());
+	}
+
+	private boolean isIgnored(int track, int channel) {
+		if (track < 0 || track >= ChannelFilter.LIMIT || channel < 0
+				|| channel >= ChannelFilter.LIMIT) {
+			return false;
+		}
+		int bit = track * ChannelFilter.LIMIT + channel;
+		return (this.ignoredChannels[bit >>> 6] & (1L << bit)) != 0;
+	}
+
+	private void ignore(int track, int channel) {
+		if (track < 0 || track >= ChannelFilter.LIMIT || channel < 0
+				|| channel >= ChannelFilter.LIMIT) {
+			return;
+		}
+		int bit = track * ChannelFilter.LIMIT + channel;
+		this.ignoredChannels[bit >>> 6] |= 1L << bit;
+	}
+}
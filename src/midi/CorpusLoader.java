@@ -0,0 +1,249 @@
+package midi;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+
+/**
+ * Loads every mid2asc.exe output file in a directory, parsing the files in
+ * parallel. Each file is loaded on its own by a worker thread using
+ * {@link SongCache#load(File)}, so the work scales with the number of threads
+ * in the executor until the disk can't keep up. Files that have been loaded
+ * before come straight from the cache.
+ *
+ * @author Ches Burks
+ *
+ */
+public class CorpusLoader {
+
+	/**
+	 * The extension of files that are loaded from a directory.
+	 */
+	public static final String EXTENSION = ".txt";
+
+	/**
+	 * Loads all the songs in the directory using one thread per processor.
+	 * Files that are not valid songs are skipped.
+	 *
+	 * @param directory the directory to load files from
+	 * @return the songs, in the order of their file names
+	 * @throws IOException if the directory cannot be listed or loading is
+	 *             interrupted
+	 */
+	public static List<Song> load(File directory) throws IOException {
+		ForkJoinPool pool = new ForkJoinPool();
+		try {
+			return CorpusLoader.load(directory, pool);
+		}
+		finally {
+			pool.shutdown();
+		}
+	}
+
+	/**
+	 * Loads all the songs in the directory using the given executor. Files
+	 * that are not valid songs are skipped. The executor is not shut down.
+	 *
+	 * @param directory the directory to load files from
+	 * @param executor the executor to parse files on
+	 * @return the songs, in the order of their file names
+	 * @throws IOException if the directory cannot be listed or loading is
+	 *             interrupted
+	 */
+	public static List<Song> load(File directory, ExecutorService executor)
+			throws IOException {
+		return CorpusLoader.load(directory, executor, new ParseDiagnostics());
+	}
+
+	/**
+	 * Works like {@link #load(File, ExecutorService)} and adds what happened
+	 * while loading each file to the given diagnostics.
+	 *
+	 * @param directory the directory to load files from
+	 * @param executor the executor to parse files on
+	 * @param diagnostics where to record what happened
+	 * @return the songs, in the order of their file names
+	 * @throws IOException if the directory cannot be listed or loading is
+	 *             interrupted
+	 */
+	public static List<Song> load(File directory, ExecutorService executor,
+			ParseDiagnostics diagnostics) throws IOException {
+		return CorpusLoader.load(directory, executor, LineFilter.PIANO,
+				diagnostics);
+	}
+
+	/**
+	 * Works like {@link #load(File, ExecutorService, ParseDiagnostics)} but
+	 * keeps the lines the given filter accepts instead of only piano lines.
+	 * The song cache only holds piano songs, so with any other filter every
+	 * file is parsed.
+	 *
+	 * @param directory the directory to load files from
+	 * @param executor the executor to parse files on
+	 * @param filter which lines to keep
+	 * @param diagnostics where to record what happened
+	 * @return the songs, in the order of their file names
+	 * @throws IOException if the directory cannot be listed or loading is
+	 *             interrupted
+	 */
+	public static List<Song> load(File directory, ExecutorService executor,
+			LineFilter filter, ParseDiagnostics diagnostics)
+			throws IOException {
+		File[] files = CorpusLoader.listFiles(directory);
+		Song[] songs = new Song[files.length];
+		CorpusLoader.run(files, executor,
+				(index, song) -> songs[index] = song, filter, diagnostics);
+		ArrayList<Song> result = new ArrayList<>(files.length);
+		for (Song song : songs) {
+			if (song != null) {
+				result.add(song);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Parses all the songs in the directory using the given executor and
+	 * hands each one to the learner as soon as it is done. The learner is
+	 * only ever called from the thread calling this method, so it does not
+	 * need to be thread safe. Songs arrive in the order they finish parsing.
+	 * The executor is not shut down.
+	 *
+	 * @param directory the directory to load files from
+	 * @param executor the executor to parse files on
+	 * @param learner what to give the songs to
+	 * @throws IOException if the directory cannot be listed or loading is
+	 *             interrupted
+	 */
+	public static void load(File directory, ExecutorService executor,
+			Consumer<Song> learner) throws IOException {
+		CorpusLoader.load(directory, executor, learner, new ParseDiagnostics());
+	}
+
+	/**
+	 * Works like {@link #load(File, ExecutorService, Consumer)} and adds what
+	 * happened while loading each file to the given diagnostics.
+	 *
+	 * @param directory the directory to load files from
+	 * @param executor the executor to parse files on
+	 * @param learner what to give the songs to
+	 * @param diagnostics where to record what happened
+	 * @throws IOException if the directory cannot be listed or loading is
+	 *             interrupted
+	 */
+	public static void load(File directory, ExecutorService executor,
+			Consumer<Song> learner, ParseDiagnostics diagnostics)
+			throws IOException {
+		CorpusLoader.run(CorpusLoader.listFiles(directory), executor, (
+				index, song) -> learner.accept(song), LineFilter.PIANO,
+				diagnostics);
+	}
+
+	/**
+	 * Returns the files to load, sorted by name.
+	 *
+	 * @param directory the directory to list
+	 * @return the song files in the directory
+	 * @throws IOException if the directory cannot be listed
+	 */
+	static File[] listFiles(File directory) throws IOException {
+		File[] files =
+				directory.listFiles(file -> file.isFile()
+						&& file.getName().endsWith(CorpusLoader.EXTENSION));
+		if (files == null) {
+			throw new IOException("Cannot list directory " + directory);
+		}
+		Arrays.sort(files);
+		return files;
+	}
+
+	/**
+	 * Receives a parsed song along with the index of its file.
+	 */
+	private interface Result {
+		void accept(int index, Song song);
+	}
+
+	/**
+	 * Parses the files on the executor and passes each valid song to the
+	 * result on the calling thread as it finishes. Each file is given its own
+	 * diagnostics, which are added to the given ones on the calling thread.
+	 */
+	private static void run(File[] files, ExecutorService executor,
+			Result result, LineFilter filter, ParseDiagnostics diagnostics)
+			throws IOException {
+		CompletionService<Integer> done =
+				new ExecutorCompletionService<>(executor);
+		Song[] parsed = new Song[files.length];
+		ParseDiagnostics[] fileDiagnostics =
+				new ParseDiagnostics[files.length];
+		// Start with the biggest files so one of them isn't left running
+		// alone at the end
+		Integer[] order = new Integer[files.length];
+		for (int i = 0; i < order.length; ++i) {
+			order[i] = i;
+		}
+		Arrays.sort(order, Comparator.comparingLong(i -> -files[i].length()));
+
+		ArrayList<Future<Integer>> futures = new ArrayList<>(files.length);
+		for (Integer index : order) {
+			futures.add(done.submit(new Callable<Integer>() {
+				@Override
+				public Integer call() {
+					ParseDiagnostics file = new ParseDiagnostics();
+					file.setEcho(diagnostics.getEcho());
+					if (filter == LineFilter.PIANO) {
+						parsed[index] = SongCache.load(files[index], file);
+					}
+					else {
+						parsed[index] =
+								AsciiParser.parseMapped(files[index], filter,
+										file);
+					}
+					fileDiagnostics[index] = file;
+					return index;
+				}
+			}));
+		}
+		try {
+			for (int i = 0; i < files.length; ++i) {
+				int index = done.take().get();
+				Song song = parsed[index];
+				parsed[index] = null;
+				diagnostics.add(fileDiagnostics[index]);
+				fileDiagnostics[index] = null;
+				if (song != null) {
+					result.accept(index, song);
+				}
+			}
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted loading "
+					+ files.length + " files");
+		}
+		catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw new IOException(e.getCause());
+		}
+		finally {
+			for (Future<Integer> future : futures) {
+				future.cancel(true);
+			}
+		}
+	}
+}
@@ -1,6 +1,5 @@
 package midi;
 
-import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 /**
@@ -18,18 +17,37 @@ public class Line {
 	 * @return true if it matches a valid line
 	 */
 	public static boolean isValidLine(String toCheck) {
-		return toCheck.matches(Line.regexLine);
+		return Line.SCANNER.get().scan(toCheck);
 	}
 
 	private int bar;
 	private float crotchet;
+	private int crotchetTop;
+	private int crotchetBottom;
 	private int track;
 	private int channel;
 	private String instruction;
+	private Opcode opcode;
+	private int firstOperand;
+	private int secondOperand;
 
 	private String inputData;// null if it has been processed.
 
-	// TODO javadoc
+	/**
+	 * Scanners are reusable but hold state, so each thread gets its own.
+	 */
+	private static final ThreadLocal<LineScanner> SCANNER =
+			new ThreadLocal<LineScanner>() {
+				@Override
+				protected LineScanner initialValue() {
+					return new LineScanner();
+				}
+			};
+
+	/*
+	 * The grammar of a line. Parsing is done by LineScanner, which accepts
+	 * exactly what regexLine matches; these are kept as the reference for it.
+	 */
 	final static String regexBar = "(BA +\\d+)";
 	final static Pattern barPattern = Pattern.compile(Line.regexBar);
 	final static String regexCrotchet = "(CR +\\d+(\\+\\d+)?(/\\d+)?)";
@@ -101,9 +119,40 @@ public class Line {
 		this.track = -1;
 		this.channel = -1;
 		this.instruction = "";
+		this.opcode = Opcode.NONE;
 		this.inputData = data;
 	}
 
+	/**
+	 * Creates an already processed line with the given values. Used to give
+	 * out lines stored in a {@link Song}.
+	 *
+	 * @param bar the bar
+	 * @param crotchetTop the numerator of the crotchet
+	 * @param crotchetBottom the denominator of the crotchet
+	 * @param track the track
+	 * @param channel the channel
+	 * @param opcode the kind of instruction
+	 * @param firstOperand the first number in the instruction
+	 * @param secondOperand the second number in the instruction
+	 * @param instruction the instruction
+	 */
+	Line(int bar, int crotchetTop, int crotchetBottom, int track, int channel,
+			Opcode opcode, int firstOperand, int secondOperand,
+			String instruction) {
+		this.bar = bar;
+		this.crotchetTop = crotchetTop;
+		this.crotchetBottom = crotchetBottom;
+		this.crotchet = ((float) crotchetTop) / ((float) crotchetBottom);
+		this.track = track;
+		this.channel = channel;
+		this.opcode = opcode;
+		this.firstOperand = firstOperand;
+		this.secondOperand = secondOperand;
+		this.instruction = instruction;
+		this.inputData = null;
+	}
+
 	/**
 	 * Returns the bar this line has recorded.
 	 * 
@@ -132,50 +181,59 @@ public class Line {
 	}
 
 	/**
-	 * Returns the instruction this line has recorded.
-	 * 
-	 * @return the instruction stored in this line
+	 * Returns the numerator of the crotchet as an exact fraction.
+	 *
+	 * @return the top of the crotchet fraction
 	 */
-	public String getInstruction() {
-		return this.instruction;
+	int getCrotchetTop() {
+		return this.crotchetTop;
 	}
 
-	private float getNumberFromFrac(String frac) {
-		String[] parts = frac.split("\\+");
-		if (parts.length < 1 || parts.length > 2) {
-			return 0;
-		}
-		int top;
-		int bottom;
-		float ret;
-
-		String[] fr2;
+	/**
+	 * Returns the denominator of the crotchet as an exact fraction.
+	 *
+	 * @return the bottom of the crotchet fraction
+	 */
+	int getCrotchetBottom() {
+		return this.crotchetBottom;
+	}
 
-		if (parts.length == 1) {
-			fr2 = parts[0].split("/");
-		}
-		else {
-			fr2 = parts[1].split("/");
-		}
+	/**
+	 * Returns the kind of instruction this line holds.
+	 *
+	 * @return the opcode of the instruction
+	 */
+	public Opcode getOpcode() {
+		return this.opcode;
+	}
 
-		if (fr2.length == 1) {
-			top = Integer.parseInt(fr2[0]);
-			bottom = 1;
-		}
-		else if (fr2.length == 2) {
-			top = Integer.parseInt(fr2[0]);
-			bottom = Integer.parseInt(fr2[1]);
-			if (parts.length == 2) {
-				top += Integer.parseInt(parts[0]) * bottom;
-			}
-		}
-		else {
-			return 0;
-		}
-		ret = ((float) top) / ((float) bottom);
+	/**
+	 * Returns the first number decoded from the instruction. What it means
+	 * depends on the {@link Opcode}.
+	 *
+	 * @return the first operand
+	 */
+	public int getFirstOperand() {
+		return this.firstOperand;
+	}
 
-		return ret;
+	/**
+	 * Returns the second number decoded from the instruction. What it means
+	 * depends on the {@link Opcode}.
+	 *
+	 * @return the second operand
+	 */
+	public int getSecondOperand() {
+		return this.secondOperand;
+	}
 
+	/**
+	 * Returns the instruction this line has recorded.
+	 * 
+	 * @return the instruction stored in this line
+	 */
+	public String getInstruction() {
+		return this.instruction;
 	}
 
 	/**
@@ -217,93 +275,71 @@ public class Line {
 		if (this.inputData == null) {
 			return;
 		}
-		if (!Line.isValidLine(this.inputData)) {
-			System.out.println(this.inputData);
-			this.inputData = null;
-			return;
-		}
-		String sBar = null;
-		String sCrotchet = null;
-		String sTrack = null;
-		String sChannel = null;
-		String sInstruction = null;
+		String data = this.inputData;
+		this.inputData = null;
+		this.fill(data);
+	}
 
-		// Grab the strings from the data using regex's (gross, I know).
-		// In braces to reduce variable scope
-		{
-			Matcher barMatcher = Line.barPattern.matcher(this.inputData);
-			if (barMatcher.find()) {
-				sBar =
-						this.inputData.substring(barMatcher.start(),
-								barMatcher.end());
-			}
-			else {
-				return;
-			}
-			barMatcher.reset();
-		}
-		{
-			Matcher crMatcher = Line.crotchetPattern.matcher(this.inputData);
-			if (crMatcher.find()) {
-				sCrotchet =
-						this.inputData.substring(crMatcher.start(),
-								crMatcher.end());
-			}
-			else {
-				return;
-			}
-			crMatcher.reset();
-		}
-		{
-			Matcher trackMatcher = Line.trackPattern.matcher(this.inputData);
-			if (trackMatcher.find()) {
-				sTrack =
-						this.inputData.substring(trackMatcher.start(),
-								trackMatcher.end());
-			}
-			else {
-				return;
-			}
-			trackMatcher.reset();
-		}
-		{
-			Matcher chanMatcher = Line.channelPattern.matcher(this.inputData);
-			if (chanMatcher.find()) {
-				sChannel =
-						this.inputData.substring(chanMatcher.start(),
-								chanMatcher.end());
-			}
-			else {
-				return;
-			}
-			chanMatcher.reset();
-		}
-		{
-			Matcher instMatcher =
-					Line.instructionPattern.matcher(this.inputData);
-			if (instMatcher.find()) {
-				sInstruction =
-						this.inputData.substring(instMatcher.start(),
-								instMatcher.end());
-			}
-			else {
-				return;
-			}
-			instMatcher.reset();
-		}
+	/**
+	 * Creates an already processed line straight from the given characters,
+	 * without needing a String of the whole line. Only the instruction is
+	 * copied out of the data. Invalid data gives a line with invalid values,
+	 * the same as processing an invalid line would.
+	 *
+	 * @param data the characters of the line
+	 * @return the processed line
+	 */
+	static Line parse(CharSequence data) {
+		Line line = new Line(null);
+		line.fill(data);
+		return line;
+	}
 
-		// Parse the smaller strings into data
-		sBar = sBar.replaceAll("BA +", "");// make sBar just a number
-		this.bar = Integer.parseInt(sBar);
-		// turn sCrotchet into a number or fraction
-		sCrotchet = sCrotchet.replaceAll("CR +", "");
-		this.crotchet = this.getNumberFromFrac(sCrotchet);
-		sTrack = sTrack.replaceAll("TR +", "");
-		this.track = Integer.parseInt(sTrack);
-		sChannel = sChannel.replaceAll("CH +", "");
-		this.channel = Integer.parseInt(sChannel);
+	/**
+	 * Creates an already processed line from the values in a scanner that
+	 * has just scanned the given data successfully.
+	 *
+	 * @param scanner the scanner holding the values of the line
+	 * @param data the characters of the line
+	 * @return the processed line
+	 */
+	static Line create(LineScanner scanner, CharSequence data) {
+		Line line = new Line(null);
+		line.set(scanner, data);
+		return line;
+	}
 
-		this.instruction = sInstruction;// leave the instr for parsing later
-		this.inputData = null;
+	/**
+	 * Scans the data and stores the values in this line.
+	 *
+	 * @param data the line to scan
+	 */
+	private void fill(CharSequence data) {
+		LineScanner scanner = Line.SCANNER.get();
+		if (scanner.scan(data)) {
+			this.set(scanner, data);
+		}
+	}
+
+	/**
+	 * Copies the values out of the scanner.
+	 *
+	 * @param scanner the scanner that scanned the data
+	 * @param data the line that was scanned
+	 */
+	private void set(LineScanner scanner, CharSequence data) {
+		this.bar = scanner.bar;
+		this.crotchet = scanner.getCrotchet();
+		this.crotchetTop = scanner.crotchetTop;
+		this.crotchetBottom = scanner.crotchetBottom;
+		this.track = scanner.track;
+		this.channel = scanner.channel;
+		this.opcode = scanner.opcode;
+		this.firstOperand = scanner.firstOperand;
+		this.secondOperand = scanner.secondOperand;
+		// leave the instr for parsing later
+		this.instruction =
+				data.subSequence(scanner.instructionStart, data.length())
+						.toString();
 	}
 }
@@ -0,0 +1,173 @@
+package midi;
+
+import java.util.EnumSet;
+
+/**
+ * Decides which lines of a song are kept. Filters are applied while a file is
+ * read, as early as possible: tracks and channels are checked before the
+ * instruction of a line is scanned, so lines that will be thrown away cost
+ * very little to skip.
+ * <p>
+ * When an instrument change on a channel is not accepted, the rest of the
+ * lines on that channel are dropped, from the instrument change on. Time
+ * signatures are always kept, because the timing of the other lines depends
+ * on them.
+ * <p>
+ * Filters must not hold state, so the same filter can be used for many files
+ * at once.
+ *
+ * @author Ches Burks
+ *
+ */
+public interface LineFilter {
+	/**
+	 * Keeps channels playing one of the General MIDI pianos, instruments 1 to
+	 * 8. This is the filter used when none is given.
+	 */
+	LineFilter PIANO = LineFilter.instruments(1, 8);
+
+	/**
+	 * Keeps every valid line.
+	 */
+	LineFilter ALL = LineFilter.instruments(Integer.MIN_VALUE,
+			Integer.MAX_VALUE);
+
+	/**
+	 * Checks if lines on the given track and channel could be kept. This is
+	 * called before the instruction of the line is read.
+	 *
+	 * @param track the track of the line
+	 * @param channel the channel of the line
+	 * @return true if lines on the channel should be read
+	 */
+	default boolean acceptChannel(int track, int channel) {
+		return true;
+	}
+
+	/**
+	 * Checks if the instrument can be played. If not, the channel changing to
+	 * it is dropped.
+	 *
+	 * @param instrument the instrument number, from 1
+	 * @return true if the instrument is kept
+	 */
+	default boolean acceptInstrument(int instrument) {
+		return true;
+	}
+
+	/**
+	 * Checks if lines with the given opcode are kept.
+	 *
+	 * @param opcode the kind of instruction
+	 * @return true if lines of that kind are kept
+	 */
+	default boolean acceptOpcode(Opcode opcode) {
+		return true;
+	}
+
+	/**
+	 * Returns a filter that keeps only the lines both this and the other
+	 * filter keep.
+	 *
+	 * @param other the filter to combine with this one
+	 * @return the combined filter
+	 */
+	default LineFilter and(LineFilter other) {
+		LineFilter first = this;
+		return new LineFilter() {
+			@Override
+			public boolean acceptChannel(int track, int channel) {
+				return first.acceptChannel(track, channel)
+						&& other.acceptChannel(track, channel);
+			}
+
+			@Override
+			public boolean acceptInstrument(int instrument) {
+				return first.acceptInstrument(instrument)
+						&& other.acceptInstrument(instrument);
+			}
+
+			@Override
+			public boolean acceptOpcode(Opcode opcode) {
+				return first.acceptOpcode(opcode) && other.acceptOpcode(opcode);
+			}
+		};
+	}
+
+	/**
+	 * Creates a filter that keeps channels playing instruments in the given
+	 * range. Channels that never set an instrument are kept.
+	 *
+	 * @param first the lowest instrument number kept
+	 * @param last the highest instrument number kept
+	 * @return the filter
+	 */
+	static LineFilter instruments(int first, int last) {
+		return new LineFilter() {
+			@Override
+			public boolean acceptInstrument(int instrument) {
+				return instrument >= first && instrument <= last;
+			}
+		};
+	}
+
+	/**
+	 * Creates a filter that keeps only lines on the given tracks.
+	 *
+	 * @param tracks the track numbers to keep
+	 * @return the filter
+	 */
+	static LineFilter tracks(int... tracks) {
+		int[] kept = tracks.clone();
+		return new LineFilter() {
+			@Override
+			public boolean acceptChannel(int track, int channel) {
+				for (int t : kept) {
+					if (t == track) {
+						return true;
+					}
+				}
+				return false;
+			}
+		};
+	}
+
+	/**
+	 * Creates a filter that keeps only lines on the given channels, on any
+	 * track.
+	 *
+	 * @param channels the channel numbers to keep
+	 * @return the filter
+	 */
+	static LineFilter channels(int... channels) {
+		int[] kept = channels.clone();
+		return new LineFilter() {
+			@Override
+			public boolean acceptChannel(int track, int channel) {
+				for (int c : kept) {
+					if (c == channel) {
+						return true;
+					}
+				}
+				return false;
+			}
+		};
+	}
+
+	/**
+	 * Creates a filter that keeps only lines with the given opcodes.
+	 *
+	 * @param first an opcode to keep
+	 * @param rest any other opcodes to keep
+	 * @return the filter
+	 */
+	static LineFilter opcodes(Opcode first, Opcode... rest) {
+		EnumSet<Opcode> kept = EnumSet.of(first, rest);
+		return new LineFilter() {
+			@Override
+			public boolean acceptOpcode(Opcode opcode) {
+				return kept.contains(opcode);
+			}
+		};
+	}
+}
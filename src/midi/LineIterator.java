@@ -0,0 +1,198 @@
+package midi;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Streams the lines of a mid2asc.exe output file. Lines are read, parsed and
+ * filtered one at a time as they are requested, so only the current line is
+ * held in memory no matter how big the file is. Invalid lines and lines the
+ * {@link LineFilter} does not keep are skipped, and counted in the iterator's
+ * {@link ParseDiagnostics}. Lines on tracks and channels the filter drops are
+ * skipped without reading their instructions.
+ * <p>
+ * The header of the file is read when the iterator is created. Reading errors
+ * after that are thrown as {@link UncheckedIOException UncheckedIOExceptions}
+ * from {@link #hasNext()} and {@link #next()}. The iterator should be closed
+ * when it is no longer needed, it closes itself once the end of the file is
+ * reached.
+ *
+ * @author Ches Burks
+ *
+ */
+public class LineIterator implements Iterator<Line>, Closeable {
+	private final LineSource source;
+	private final int format;
+	private final int tracks;
+	private final int division;
+	private final ParseDiagnostics diagnostics;
+
+	private final ChannelFilter filter;
+	private final LineScanner scanner = new LineScanner();
+	private Line nextLine;
+	private boolean finished;
+
+	/**
+	 * Creates an iterator over the lines from the given source. The header is
+	 * read immediately.
+	 *
+	 * @param source the source to get lines from
+	 * @param filter which lines to keep
+	 * @param diagnostics where to count the lines that are read
+	 * @throws IOException if the source cannot be read or does not start with
+	 *             a valid header
+	 */
+	LineIterator(LineSource source, LineFilter filter,
+			ParseDiagnostics diagnostics) throws IOException {
+		this.source = source;
+		this.filter = new ChannelFilter(filter);
+		this.diagnostics = diagnostics;
+		try {
+			CharSequence header = source.readLine();
+			if (header == null) {
+				throw new IOException("Missing header");
+			}
+			String line = header.toString().replaceFirst("format=", "");
+			this.format =
+					Integer.parseInt(line.substring(0, line.indexOf(" ")));
+			line = line.substring(line.indexOf("tracks=") + 7);
+			this.tracks =
+					Integer.parseInt(line.substring(0, line.indexOf(" ")));
+			line = line.substring(line.indexOf("division=") + 9);
+			this.division = Integer.parseInt(line);
+		}
+		catch (IOException | RuntimeException e) {
+			source.close();
+			if (e instanceof IOException) {
+				throw (IOException) e;
+			}
+			throw new IOException("Invalid header", e);
+		}
+	}
+
+	/**
+	 * Returns the midi format from the header.
+	 *
+	 * @return the format of the midi file
+	 */
+	public int getFormat() {
+		return this.format;
+	}
+
+	/**
+	 * Returns how many tracks the header says the song has.
+	 *
+	 * @return the number of tracks
+	 */
+	public int getTracks() {
+		return this.tracks;
+	}
+
+	/**
+	 * Returns the division of crotchets from the header.
+	 *
+	 * @return the number of divisions
+	 */
+	public int getDivision() {
+		return this.division;
+	}
+
+	/**
+	 * Returns the diagnostics the lines read are counted in.
+	 *
+	 * @return the diagnostics for this iterator
+	 */
+	public ParseDiagnostics getDiagnostics() {
+		return this.diagnostics;
+	}
+
+	/**
+	 * Creates an empty song with the information from the header.
+	 *
+	 * @return a new song with no lines
+	 */
+	public Song createSong() {
+		return new Song(this.format, this.tracks, this.division);
+	}
+
+	@Override
+	public boolean hasNext() {
+		if (this.nextLine != null) {
+			return true;
+		}
+		if (this.finished) {
+			return false;
+		}
+		try {
+			this.nextLine = this.readLine();
+			if (this.nextLine == null) {
+				this.close();
+			}
+		}
+		catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		return this.nextLine != null;
+	}
+
+	@Override
+	public Line next() {
+		if (!this.hasNext()) {
+			throw new NoSuchElementException();
+		}
+		Line line = this.nextLine;
+		this.nextLine = null;
+		return line;
+	}
+
+	@Override
+	public void close() throws IOException {
+		this.finished = true;
+		this.source.close();
+	}
+
+	/**
+	 * Reads lines until one is found that should be kept.
+	 *
+	 * @return the next line to keep, or null at the end of the file
+	 * @throws IOException if there is a problem reading
+	 */
+	private Line readLine() throws IOException {
+		CharSequence data;
+		while ((data = this.source.readLine()) != null) {
+			this.diagnostics.lineRead();
+			if (data.length() == 0) {
+				continue;
+			}
+			else if (data.charAt(0) == '#') {
+				// its a comment
+				// TODO handle these for track separated
+				continue;
+			}
+			if (!this.scanner.scanPrefix(data)) {
+				this.diagnostics.rejected(data);
+				continue;
+			}
+			if (!this.filter.acceptChannel(this.scanner.track,
+					this.scanner.channel)
+					&& !this.scanner.isTimeSignature()) {
+				this.diagnostics.filtered();
+				continue;
+			}
+			if (!this.scanner.scanInstruction()) {
+				this.diagnostics.rejected(data);
+				continue;
+			}
+			Line l1 = Line.create(this.scanner, data);
+			if (!this.filter.accept(l1)) {
+				this.diagnostics.filtered();
+				continue;
+			}
+			return l1;
+		}
+		return null;
+	}
+}
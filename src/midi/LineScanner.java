@@ -0,0 +1,596 @@
+package midi;
+
+/**
+ * A hand written, single pass scanner for mid2asc.exe output lines. It accepts
+ * exactly the lines that {@link Line#regexLine} matches, but walks the line
+ * once from left to right and pulls the bar, crotchet, track, channel and
+ * instruction out as it goes instead of running a separate regex for each
+ * field. No intermediate strings are created.
+ * <p>
+ * A scanner is reusable but not thread safe. After a successful call to
+ * {@link #scan(CharSequence)} the public fields hold the values from the line.
+ * A line can also be scanned in two steps, {@link #scanPrefix(CharSequence)}
+ * and then {@link #scanInstruction()}, so that lines can be dropped based on
+ * their track and channel without reading the instruction.
+ *
+ * @author Ches Burks
+ *
+ */
+final class LineScanner {
+	/**
+	 * Names of the major and minor keys, indexed by the number of sharps plus
+	 * 7.
+	 */
+	static final String[] MAJOR_KEYS = { "Cb", "Gb", "Db", "Ab", "Eb", "Bb",
+			"F", "C", "G", "D", "A", "E", "B", "F#", "C#" };
+	static final String[] MINOR_KEYS = { "Ab", "Eb", "Bb", "F", "C", "G",
+			"D", "A", "E", "B", "F#", "C#", "G#", "D#", "A#" };
+
+	/**
+	 * Semitones above C of the letters A to G.
+	 */
+	private static final int[] LETTER_PITCHES = { 9, 11, 0, 2, 4, 5, 7 };
+
+	/**
+	 * The bar number.
+	 */
+	int bar;
+	/**
+	 * The crotchet position as a fraction, crotchetTop / crotchetBottom.
+	 */
+	int crotchetTop;
+	/**
+	 * The denominator of the crotchet position, 1 if it was a whole number.
+	 */
+	int crotchetBottom;
+	/**
+	 * The track number.
+	 */
+	int track;
+	/**
+	 * The channel number.
+	 */
+	int channel;
+	/**
+	 * The index the instruction starts at. It always runs to the end of the
+	 * line.
+	 */
+	int instructionStart;
+	/**
+	 * Which kind of instruction was found.
+	 */
+	Opcode opcode;
+	/**
+	 * The first number decoded from the instruction, see {@link Opcode}.
+	 */
+	int firstOperand;
+	/**
+	 * The second number decoded from the instruction, see {@link Opcode}.
+	 */
+	int secondOperand;
+
+	private CharSequence data;
+	private int pos;
+	private int end;
+	/**
+	 * The value of the last number read by {@link #digits()}.
+	 */
+	private int value;
+
+	/**
+	 * Scans the given line. Returns true if it is a valid MIDI ASCII line, in
+	 * which case the fields of this scanner are filled in. If false is
+	 * returned the fields have undefined values.
+	 *
+	 * @param line the line to scan
+	 * @return true if the line is valid
+	 */
+	boolean scan(CharSequence line) {
+		return this.scanPrefix(line) && this.scanInstruction();
+	}
+
+	/**
+	 * Scans the bar, crotchet, track and channel of the line. Returns true if
+	 * they are valid, in which case {@link #scanInstruction()} can be called
+	 * to scan the rest of the line.
+	 *
+	 * @param line the line to scan
+	 * @return true if the start of the line is valid
+	 */
+	boolean scanPrefix(CharSequence line) {
+		this.data = line;
+		this.pos = 0;
+		this.end = line.length();
+		this.opcode = Opcode.NONE;
+		this.firstOperand = 0;
+		this.secondOperand = 0;
+		if (this.scanFields()) {
+			return true;
+		}
+		this.data = null;
+		return false;
+	}
+
+	/**
+	 * Scans the instruction of the line given to the last successful call to
+	 * {@link #scanPrefix(CharSequence)}. Returns true if the whole line is
+	 * valid.
+	 *
+	 * @return true if the line is valid
+	 */
+	boolean scanInstruction() {
+		boolean valid = this.instruction();
+		this.data = null;
+		return valid;
+	}
+
+	/**
+	 * Checks if the instruction of the line given to
+	 * {@link #scanPrefix(CharSequence)} looks like a time signature, without
+	 * scanning it.
+	 *
+	 * @return true if the instruction starts like a time signature
+	 */
+	boolean isTimeSignature() {
+		int start = this.pos;
+		boolean time = this.keyword("Time signature ");
+		this.pos = start;
+		return time;
+	}
+
+	/**
+	 * Returns the crotchet as a float, the same way the regex based parser
+	 * used to calculate it.
+	 *
+	 * @return the crotchet position
+	 */
+	float getCrotchet() {
+		return ((float) this.crotchetTop) / ((float) this.crotchetBottom);
+	}
+
+	private boolean scanFields() {
+		if (!this.keyword("BA") || !this.spaces() || !this.number()) {
+			return false;
+		}
+		this.bar = this.value;
+		if (!this.spaces() || !this.keyword("CR") || !this.spaces()
+				|| !this.crotchet()) {
+			return false;
+		}
+		if (!this.spaces() || !this.keyword("TR") || !this.spaces()
+				|| !this.number()) {
+			return false;
+		}
+		this.track = this.value;
+		if (!this.spaces() || !this.keyword("CH") || !this.spaces()
+				|| !this.number()) {
+			return false;
+		}
+		this.channel = this.value;
+		if (!this.spaces()) {
+			return false;
+		}
+		this.instructionStart = this.pos;
+		return true;
+	}
+
+	/**
+	 * Reads a crotchet of the form <code>a</code>, <code>a/b</code> or
+	 * <code>a+b/c</code>. The whole part is only added when there is a
+	 * denominator, so <code>a+b</code> reads as <code>b</code>, as it did with
+	 * the regex based parser.
+	 */
+	private boolean crotchet() {
+		if (!this.number()) {
+			return false;
+		}
+		long whole = 0;
+		long top = this.value;
+		long bottom = 1;
+		if (this.peek() == '+') {
+			++this.pos;
+			if (!this.number()) {
+				return false;
+			}
+			whole = top;
+			top = this.value;
+		}
+		if (this.peek() == '/') {
+			++this.pos;
+			if (!this.number()) {
+				return false;
+			}
+			bottom = this.value;
+			top += whole * bottom;
+		}
+		if (top > Integer.MAX_VALUE) {
+			return false;
+		}
+		this.crotchetTop = (int) top;
+		this.crotchetBottom = (int) bottom;
+		return true;
+	}
+
+	private boolean instruction() {
+		switch (this.peek()) {
+		case 'N':
+			this.opcode = Opcode.NOTE;
+			return this.note();
+		case 'S':
+			if (this.keyword("ST")) {
+				this.opcode = Opcode.START_NOTE;
+				for (int i = 0; i < 3; ++i) {
+					if (!this.spaces() || !this.hexByte()) {
+						return false;
+					}
+					if (i == 0) {
+						this.firstOperand = this.value;
+					}
+					else {
+						this.secondOperand =
+								this.secondOperand << 8 | this.value;
+					}
+				}
+				return this.atEnd();
+			}
+			this.opcode = Opcode.SYSEX;
+			return this.sysex();
+		case 'T':
+			if (this.keyword("Text type ")) {
+				this.opcode = Opcode.TEXT;
+				return this.text();
+			}
+			if (this.keyword("Tempo ")) {
+				this.opcode = Opcode.TEMPO;
+				if (!this.digits()) {
+					return false;
+				}
+				this.firstOperand = this.value;
+				if (this.peek() == '.') {
+					++this.pos;
+					if (!this.digits()) {
+						return false;
+					}
+				}
+				return this.atEnd();
+			}
+			this.opcode = Opcode.TIME_SIGNATURE;
+			if (!this.keyword("Time signature ") || !this.digits()) {
+				return false;
+			}
+			this.firstOperand = this.value;
+			if (!this.keyword("/") || !this.digits()) {
+				return false;
+			}
+			this.secondOperand = this.value;
+			return this.keyword(", clocks/mtick ") && this.digits()
+					&& this.keyword(", crotchets/32ndnote ")
+					&& this.digits() && this.atEnd();
+		case 'M':
+			this.opcode = Opcode.META;
+			return this.meta();
+		case 'E':
+			this.opcode = Opcode.END;
+			return this.keyword("End of track") && this.atEnd();
+		case 'K':
+			this.opcode = Opcode.KEY;
+			return this.key();
+		case 'I':
+			this.opcode = Opcode.INSTRUMENT;
+			if (!this.keyword("Instrument ")) {
+				return false;
+			}
+			int start = this.pos;
+			if (!this.digits()) {
+				return false;
+			}
+			this.firstOperand = this.value;
+			return this.pos - start <= 2 && this.atEnd();
+		case 'C':
+			this.opcode = Opcode.VOLUME;
+			if (!this.keyword("Channel volume ") || !this.digits()) {
+				return false;
+			}
+			this.firstOperand = this.value;
+			return this.atEnd();
+		default:
+			return false;
+		}
+	}
+
+	/**
+	 * NT +[A-G](#|b)?('+|-+)? +\d+(\+\d+)?(/\d+)?( +von=\d+)?( +voff=\d+)?
+	 */
+	private boolean note() {
+		if (!this.keyword("NT") || !this.spaces()) {
+			return false;
+		}
+		char c = this.peek();
+		if (c < 'A' || c > 'G') {
+			return false;
+		}
+		int key = 60 + LineScanner.LETTER_PITCHES[c - 'A'];
+		++this.pos;
+		c = this.peek();
+		if (c == '#' || c == 'b') {
+			key += c == '#' ? 1 : -1;
+			++this.pos;
+			c = this.peek();
+		}
+		if (c == '\'' || c == '-') {
+			while (this.peek() == c) {
+				key += c == '\'' ? 12 : -12;
+				++this.pos;
+			}
+		}
+		this.firstOperand = key;
+		this.secondOperand = -1;
+		if (!this.spaces() || !this.crotchetLength()) {
+			return false;
+		}
+		if (this.atEnd()) {
+			return true;
+		}
+		if (!this.spaces()) {
+			return false;
+		}
+		if (this.keyword("von=")) {
+			if (!this.digits()) {
+				return false;
+			}
+			this.secondOperand = this.value;
+			if (this.atEnd()) {
+				return true;
+			}
+			if (!this.spaces()) {
+				return false;
+			}
+		}
+		return this.keyword("voff=") && this.digits() && this.atEnd();
+	}
+
+	/**
+	 * \d+(\+\d+)?(/\d+)? without storing the result.
+	 */
+	private boolean crotchetLength() {
+		if (!this.digits()) {
+			return false;
+		}
+		if (this.peek() == '+') {
+			++this.pos;
+			if (!this.digits()) {
+				return false;
+			}
+		}
+		if (this.peek() == '/') {
+			++this.pos;
+			return this.digits();
+		}
+		return true;
+	}
+
+	/**
+	 * Text type [1-7]: \".*\" where the dot does not match line terminators.
+	 */
+	private boolean text() {
+		char c = this.peek();
+		if (c < '1' || c > '7') {
+			return false;
+		}
+		this.firstOperand = c - '0';
+		++this.pos;
+		if (!this.keyword(": \"")) {
+			return false;
+		}
+		if (this.end - this.pos < 1 || this.data.charAt(this.end - 1) != '"') {
+			return false;
+		}
+		for (int i = this.pos; i < this.end - 1; ++i) {
+			c = this.data.charAt(i);
+			if (c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028'
+					|| c == '\u2029') {
+				return false;
+			}
+		}
+		this.pos = this.end;
+		return true;
+	}
+
+	/**
+	 * Meta Event +type &amp;[0-9A-F]{2} *( \d+)+
+	 */
+	private boolean meta() {
+		if (!this.keyword("Meta Event") || !this.spaces()
+				|| !this.keyword("type ") || !this.hexByte()) {
+			return false;
+		}
+		this.firstOperand = this.value;
+		// the optional spaces and the first group's space act like " +"
+		if (!this.spaces() || !this.digits()) {
+			return false;
+		}
+		while (!this.atEnd()) {
+			if (this.peek() != ' ') {
+				return false;
+			}
+			++this.pos;
+			if (!this.digits()) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Sysex event &amp;[0-9A-F]{2}( +&amp;[0-9A-F]{2})+
+	 */
+	private boolean sysex() {
+		if (!this.keyword("Sysex event ") || !this.hexByte()) {
+			return false;
+		}
+		this.firstOperand = this.value;
+		do {
+			if (!this.spaces() || !this.hexByte()) {
+				return false;
+			}
+		} while (!this.atEnd());
+		return true;
+	}
+
+	/**
+	 * Key [A-F](#|b)?( (major|minor))?
+	 */
+	private boolean key() {
+		if (!this.keyword("Key ")) {
+			return false;
+		}
+		int start = this.pos;
+		char c = this.peek();
+		if (c < 'A' || c > 'F') {
+			return false;
+		}
+		++this.pos;
+		c = this.peek();
+		if (c == '#' || c == 'b') {
+			++this.pos;
+		}
+		int nameEnd = this.pos;
+		boolean minor = false;
+		if (!this.atEnd()) {
+			minor = this.keyword(" minor");
+			if (!minor && !this.keyword(" major")) {
+				return false;
+			}
+		}
+		this.firstOperand =
+				this.sharps(start, nameEnd, minor ? LineScanner.MINOR_KEYS
+						: LineScanner.MAJOR_KEYS);
+		this.secondOperand = minor ? 1 : 0;
+		return this.atEnd();
+	}
+
+	/**
+	 * Returns the number of sharps of the key named between start and end, or
+	 * 0 if it is not in the table.
+	 */
+	private int sharps(int start, int end, String[] keys) {
+		for (int i = 0; i < keys.length; ++i) {
+			String name = keys[i];
+			if (name.length() != end - start) {
+				continue;
+			}
+			boolean same = true;
+			for (int j = 0; j < name.length() && same; ++j) {
+				same = this.data.charAt(start + j) == name.charAt(j);
+			}
+			if (same) {
+				return i - 7;
+			}
+		}
+		return 0;
+	}
+
+	/**
+	 * &amp;[0-9A-F]{2}, leaving the byte in {@link #value}.
+	 */
+	private boolean hexByte() {
+		if (this.end - this.pos < 3 || this.data.charAt(this.pos) != '&') {
+			return false;
+		}
+		int high = LineScanner.hexValue(this.data.charAt(this.pos + 1));
+		int low = LineScanner.hexValue(this.data.charAt(this.pos + 2));
+		if (high < 0 || low < 0) {
+			return false;
+		}
+		this.value = high << 4 | low;
+		this.pos += 3;
+		return true;
+	}
+
+	/**
+	 * Returns the value of an upper case hex digit, or -1 if it is not one.
+	 */
+	private static int hexValue(char c) {
+		if (c >= '0' && c <= '9') {
+			return c - '0';
+		}
+		if (c >= 'A' && c <= 'F') {
+			return c - 'A' + 10;
+		}
+		return -1;
+	}
+
+	/**
+	 * Reads one or more ASCII digits into {@link #value}. Numbers too large
+	 * for an int still match, like \d+ does, but leave -1 in value.
+	 */
+	private boolean digits() {
+		int start = this.pos;
+		long result = 0;
+		while (this.pos < this.end) {
+			char c = this.data.charAt(this.pos);
+			if (c < '0' || c > '9') {
+				break;
+			}
+			if (result >= 0) {
+				result = result * 10 + (c - '0');
+				if (result > Integer.MAX_VALUE) {
+					result = -1;
+				}
+			}
+			++this.pos;
+		}
+		this.value = (int) result;
+		return this.pos > start;
+	}
+
+	/**
+	 * Reads digits for a field that is kept. A number that does not fit in an
+	 * int makes the line invalid, where the regex parser threw an exception.
+	 */
+	private boolean number() {
+		return this.digits() && this.value >= 0;
+	}
+
+	/**
+	 * Skips one or more spaces.
+	 */
+	private boolean spaces() {
+		int start = this.pos;
+		while (this.pos < this.end && this.data.charAt(this.pos) == ' ') {
+			++this.pos;
+		}
+		return this.pos > start;
+	}
+
+	/**
+	 * Consumes the given text if the data continues with it.
+	 */
+	private boolean keyword(String word) {
+		int len = word.length();
+		if (this.end - this.pos < len) {
+			return false;
+		}
+		for (int i = 0; i < len; ++i) {
+			if (this.data.charAt(this.pos + i) != word.charAt(i)) {
+				return false;
+			}
+		}
+		this.pos += len;
+		return true;
+	}
+
+	private boolean atEnd() {
+		return this.pos == this.end;
+	}
+
+	/**
+	 * Returns the next character or 0 at the end of the line.
+	 */
+	private char peek() {
+		if (this.pos < this.end) {
+			return this.data.charAt(this.pos);
+		}
+		return 0;
+	}
+}
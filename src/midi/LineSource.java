@@ -0,0 +1,49 @@
+package midi;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Somewhere raw lines of a mid2asc.exe output file come from.
+ *
+ * @author Ches Burks
+ *
+ */
+interface LineSource extends Closeable {
+	/**
+	 * Returns the next line without its line terminator, or null at the end
+	 * of the input. The returned characters are only valid until the next
+	 * call, sources are free to reuse them.
+	 *
+	 * @return the next line, or null if there are no more
+	 * @throws IOException if there is a problem reading
+	 */
+	CharSequence readLine() throws IOException;
+
+	/**
+	 * Reads lines with a {@link BufferedReader}, decoding them into Strings.
+	 */
+	static final class Reader implements LineSource {
+		private final BufferedReader reader;
+
+		/**
+		 * Creates a source that reads from the given reader.
+		 *
+		 * @param reader the reader to wrap
+		 */
+		Reader(BufferedReader reader) {
+			this.reader = reader;
+		}
+
+		@Override
+		public CharSequence readLine() throws IOException {
+			return this.reader.readLine();
+		}
+
+		@Override
+		public void close() throws IOException {
+			this.reader.close();
+		}
+	}
+}
@@ -0,0 +1,189 @@
+package midi;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reads lines straight out of a memory mapped file. The files are plain
+ * ASCII, so each byte is used as a char without any decoding, and lines are
+ * handed out as a reused view over the bytes instead of as Strings. Bytes
+ * above 127 are read as ISO-8859-1.
+ * <p>
+ * The mapped pages are copied in large blocks into a reused array before
+ * scanning, since reading a mapped buffer a byte at a time is much slower
+ * than reading an array.
+ *
+ * @author Ches Burks
+ *
+ */
+final class MappedLineSource implements LineSource {
+	private static final int BLOCK_SIZE = 1 << 16;
+
+	private final ByteBuffer mapped;
+	private final ByteSequence line;
+	/**
+	 * The block of the file currently being read.
+	 */
+	private byte[] block;
+	private int blockLength;
+	private int position;
+
+	/**
+	 * Maps the given file into memory. The file is closed again right away,
+	 * the mapping stays valid until it is garbage collected.
+	 *
+	 * @param file the file to map
+	 * @throws IOException if the file cannot be mapped
+	 */
+	MappedLineSource(File file) throws IOException {
+		MappedByteBuffer buffer;
+		try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+				FileChannel channel = raf.getChannel()) {
+			long size = channel.size();
+			if (size > Integer.MAX_VALUE) {
+				throw new IOException("File too large to map: " + file);
+			}
+			buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+		}
+		this.mapped = buffer;
+		this.block = new byte[Math.min(MappedLineSource.BLOCK_SIZE,
+				Math.max(buffer.limit(), 1))];
+		this.line = new ByteSequence();
+	}
+
+	@Override
+	public CharSequence readLine() {
+		int end = this.position;
+		// \n, \r and \r\n all end a line, the same as BufferedReader
+		while (true) {
+			if (end == this.blockLength) {
+				int consumed = this.position;
+				if (!this.fill()) {
+					break;
+				}
+				end -= consumed;
+			}
+			byte b = this.block[end];
+			if (b == '\n' || b == '\r') {
+				break;
+			}
+			++end;
+		}
+		if (end == this.position && end == this.blockLength) {
+			return null;
+		}
+		this.line.set(this.block, this.position, end);
+		if (end == this.blockLength) {
+			// last line of the file, without a line terminator
+			this.position = end;
+			return this.line;
+		}
+		this.position = end + 1;
+		if (this.block[end] == '\r') {
+			if (this.position == this.blockLength) {
+				// the \n may be in the next block; the line is still needed
+				// so keep it in the array while looking
+				this.skipNewlineAcrossBlock();
+			}
+			else if (this.block[this.position] == '\n') {
+				++this.position;
+			}
+		}
+		return this.line;
+	}
+
+	@Override
+	public void close() {
+		this.mapped.position(this.mapped.limit());
+		this.position = this.blockLength;
+	}
+
+	/**
+	 * Copies the next block of the file into the array, keeping the unread
+	 * part of the current block at the front.
+	 *
+	 * @return false if there was nothing left to read
+	 */
+	private boolean fill() {
+		int remaining = this.mapped.remaining();
+		if (remaining == 0) {
+			return false;
+		}
+		int kept = this.blockLength - this.position;
+		if (kept == this.block.length) {
+			// a single line longer than the block, grow it
+			byte[] bigger = new byte[this.block.length * 2];
+			System.arraycopy(this.block, this.position, bigger, 0, kept);
+			this.block = bigger;
+		}
+		else {
+			System.arraycopy(this.block, this.position, this.block, 0, kept);
+		}
+		int count = Math.min(remaining, this.block.length - kept);
+		this.mapped.get(this.block, kept, count);
+		this.blockLength = kept + count;
+		this.position = 0;
+		return true;
+	}
+
+	/**
+	 * Skips a \n at the very start of the next block, without moving the
+	 * bytes of the current line.
+	 */
+	private void skipNewlineAcrossBlock() {
+		if (this.mapped.hasRemaining()
+				&& this.mapped.get(this.mapped.position()) == '\n') {
+			this.mapped.get();
+		}
+	}
+
+	/**
+	 * A window of bytes in an array seen as characters.
+	 */
+	static final class ByteSequence implements CharSequence {
+		private byte[] bytes;
+		private int offset;
+		private int length;
+
+		/**
+		 * Moves the window to the given range of the array.
+		 *
+		 * @param array the array to read from
+		 * @param start the first index, inclusive
+		 * @param end the last index, exclusive
+		 */
+		void set(byte[] array, int start, int end) {
+			this.bytes = array;
+			this.offset = start;
+			this.length = end - start;
+		}
+
+		@Override
+		public int length() {
+			return this.length;
+		}
+
+		@Override
+		public char charAt(int index) {
+			return (char) (this.bytes[this.offset + index] & 0xFF);
+		}
+
+		@Override
+		public CharSequence subSequence(int start, int end) {
+			ByteSequence sub = new ByteSequence();
+			sub.set(this.bytes, this.offset + start, this.offset + end);
+			return sub;
+		}
+
+		@Override
+		public String toString() {
+			return new String(this.bytes, this.offset, this.length,
+					StandardCharsets.ISO_8859_1);
+		}
+	}
+}
@@ -0,0 +1,572 @@
+package midi;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+
+import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.MetaMessage;
+import javax.sound.midi.MidiEvent;
+import javax.sound.midi.MidiMessage;
+import javax.sound.midi.MidiSystem;
+import javax.sound.midi.Sequence;
+import javax.sound.midi.ShortMessage;
+import javax.sound.midi.SysexMessage;
+import javax.sound.midi.Track;
+
+/**
+ * Reads standard MIDI files (format 0 or 1) directly into a {@link Song},
+ * without going through the mid2asc.exe text output. Each event is decoded
+ * straight into a {@link Line}: its bar, crotchet, opcode and operands come
+ * from the event, and the instruction text mid2asc.exe would write is kept
+ * with it but never scanned. The lines are in the same order as mid2asc.exe
+ * writes them and go through the same piano filtering as {@link AsciiParser}
+ * does, so the songs can be used the same way. Events on channels the filter
+ * has dropped are skipped before they are decoded.
+ * <p>
+ * A few things are not written exactly the way mid2asc.exe writes them:
+ * tempos are rounded to a whole number of beats per minute, and note names
+ * are spelled from the key signature in a simpler way. Since nothing is
+ * scanned, events the text grammar does not accept are still kept, such as
+ * keys named G, instruments above 99 and meta events without data.
+ *
+ * @author Ches Burks
+ *
+ */
+public class MidiFileParser {
+	/**
+	 * The channel mid2asc.exe puts meta events on.
+	 */
+	private static final int META_CHANNEL = 16;
+
+	private static final String[] NAMES_NATURAL = { "C", "C#", "D", "Eb",
+			"E", "F", "F#", "G", "G#", "A", "Bb", "B" };
+	private static final String[] NAMES_SHARP = { "C", "C#", "D", "D#", "E",
+			"F", "F#", "G", "G#", "A", "A#", "B" };
+	private static final String[] NAMES_FLAT = { "C", "Db", "D", "Eb", "E",
+			"F", "Gb", "G", "Ab", "A", "Bb", "B" };
+
+	/**
+	 * One event from a track, with where it came from so events from all
+	 * tracks can be put in order.
+	 */
+	private static final class Event implements Comparable<Event> {
+		final long tick;
+		final int track;
+		final int order;
+		final MidiMessage message;
+		/**
+		 * For note on events, how long until the matching note off.
+		 */
+		long duration = -1;
+		/**
+		 * For note on events, the velocity of the matching note off.
+		 */
+		int offVelocity = -1;
+		/**
+		 * For note on events, the velocity if it is not the same as the one
+		 * of the note on before it in the track, otherwise -1.
+		 */
+		int newVelocity = -1;
+
+		Event(long tick, int track, int order, MidiMessage message) {
+			this.tick = tick;
+			this.track = track;
+			this.order = order;
+			this.message = message;
+		}
+
+		@Override
+		public int compareTo(Event o) {
+			if (this.tick != o.tick) {
+				return this.tick < o.tick ? -1 : 1;
+			}
+			if (this.track != o.track) {
+				return this.track - o.track;
+			}
+			return this.order - o.order;
+		}
+	}
+
+	/**
+	 * The instruction of the event being read, decoded straight from the
+	 * event. The text is the one mid2asc.exe writes, and is only kept as the
+	 * instruction of the line, it is never scanned.
+	 */
+	private static final class Instruction {
+		final StringBuilder text = new StringBuilder(64);
+		Opcode opcode;
+		int firstOperand;
+		int secondOperand;
+
+		void set(Opcode opcode, int firstOperand, int secondOperand) {
+			this.opcode = opcode;
+			this.firstOperand = firstOperand;
+			this.secondOperand = secondOperand;
+		}
+	}
+
+	/**
+	 * Reads the MIDI file and creates a song from it. If the file is not valid
+	 * or it cannot be read for some reason, null is returned. Files that use
+	 * SMPTE timing instead of ticks per crotchet are not supported.
+	 *
+	 * @param input the MIDI file to read
+	 * @return the newly created song, or null if there was a problem creating
+	 *         one
+	 */
+	public static Song parse(File input) {
+		return MidiFileParser.parse(input, new ParseDiagnostics());
+	}
+
+	/**
+	 * Works like {@link #parse(File)} and records the events read, the lines
+	 * filtered and the time taken in the given diagnostics. Each event counts
+	 * as a line read.
+	 *
+	 * @param input the MIDI file to read
+	 * @param diagnostics where to record what happened
+	 * @return the newly created song, or null if there was a problem creating
+	 *         one
+	 */
+	public static Song parse(File input, ParseDiagnostics diagnostics) {
+		return MidiFileParser.parse(input, LineFilter.PIANO, diagnostics);
+	}
+
+	/**
+	 * Works like {@link #parse(File, ParseDiagnostics)} but keeps the lines
+	 * the given filter accepts instead of only piano lines.
+	 *
+	 * @param input the MIDI file to read
+	 * @param filter which lines to keep
+	 * @param diagnostics where to record what happened
+	 * @return the newly created song, or null if there was a problem creating
+	 *         one
+	 */
+	public static Song parse(File input, LineFilter filter,
+			ParseDiagnostics diagnostics) {
+		diagnostics.fileParsed(input);
+		long start = System.nanoTime();
+		Sequence sequence;
+		int format;
+		try {
+			format = MidiSystem.getMidiFileFormat(input).getType();
+			sequence = MidiSystem.getSequence(input);
+		}
+		catch (InvalidMidiDataException | IOException e) {
+			diagnostics.fileFailed(input, e);
+			return null;
+		}
+		if (sequence.getDivisionType() != Sequence.PPQ) {
+			diagnostics.fileFailed(input, new InvalidMidiDataException(
+					"SMPTE timing is not supported"));
+			return null;
+		}
+		int division = sequence.getResolution();
+		Track[] tracks = sequence.getTracks();
+		Song song = new Song(format, tracks.length, division);
+
+		ArrayList<Event> events = new ArrayList<>();
+		for (int t = 0; t < tracks.length; ++t) {
+			MidiFileParser.readTrack(tracks[t], t, events);
+		}
+		Collections.sort(events);
+		Bars bars = new Bars(division, events);
+		diagnostics.addTime(ParseDiagnostics.Phase.OPEN, System.nanoTime()
+				- start);
+		diagnostics.startLines();
+
+		ChannelFilter channels = new ChannelFilter(filter);
+		Instruction instruction = new Instruction();
+		int[] lastChannel = new int[tracks.length];
+		Arrays.fill(lastChannel, 1);
+		int keySharps = 0;
+
+		for (Event event : events) {
+			diagnostics.lineRead();
+			int channel = MidiFileParser.META_CHANNEL;
+			MidiMessage message = event.message;
+			boolean timeSignature = false;
+			if (message instanceof ShortMessage) {
+				channel = ((ShortMessage) message).getChannel() + 1;
+				lastChannel[event.track] = channel;
+			}
+			else if (message instanceof MetaMessage) {
+				MetaMessage meta = (MetaMessage) message;
+				if (meta.getType() == 0x59 && meta.getData().length >= 1) {
+					keySharps = meta.getData()[0];
+				}
+				timeSignature = meta.getType() == 0x58;
+			}
+			else if (message instanceof SysexMessage) {
+				channel = lastChannel[event.track];
+			}
+			else {
+				continue;
+			}
+			if (!timeSignature
+					&& !channels.acceptChannel(event.track, channel)) {
+				diagnostics.filtered();
+				continue;
+			}
+
+			instruction.text.setLength(0);
+			if (message instanceof ShortMessage) {
+				if (!MidiFileParser.channelEvent((ShortMessage) message, event,
+						division, keySharps, instruction)) {
+					continue;
+				}
+			}
+			else if (message instanceof MetaMessage) {
+				MidiFileParser.metaEvent((MetaMessage) message, instruction);
+			}
+			else {
+				MidiFileParser.sysexEvent((SysexMessage) message, instruction);
+			}
+			Line line =
+					bars.line(event.tick, event.track, channel, instruction);
+			if (!channels.accept(line)) {
+				diagnostics.filtered();
+				continue;
+			}
+			if (diagnostics.timeStore()) {
+				long storeStart = System.nanoTime();
+				song.addLine(line);
+				diagnostics.storeTimed(System.nanoTime() - storeStart);
+			}
+			else {
+				song.addLine(line);
+			}
+			diagnostics.kept(line.getOpcode());
+		}
+		start = System.nanoTime();
+		song.trimToSize();
+		diagnostics.endLines(System.nanoTime() - start);
+		return song;
+	}
+
+	/**
+	 * Adds the events of a track to the list and pairs each note on with the
+	 * note off that ends it.
+	 */
+	private static void readTrack(Track track, int index,
+			ArrayList<Event> events) {
+		HashMap<Integer, ArrayDeque<Event>> playing = new HashMap<>();
+		int lastVelocity = -1;
+		long end = track.ticks();
+		for (int i = 0; i < track.size(); ++i) {
+			MidiEvent midiEvent = track.get(i);
+			Event event =
+					new Event(midiEvent.getTick(), index, i,
+							midiEvent.getMessage());
+			MidiMessage message = midiEvent.getMessage();
+			if (message instanceof ShortMessage) {
+				ShortMessage msg = (ShortMessage) message;
+				int command = msg.getCommand();
+				// channel and key together
+				Integer note = (msg.getChannel() << 8) | msg.getData1();
+				if (command == ShortMessage.NOTE_ON && msg.getData2() > 0) {
+					// mid2asc.exe only writes a velocity when it changes
+					if (msg.getData2() != lastVelocity) {
+						lastVelocity = msg.getData2();
+						event.newVelocity = lastVelocity;
+					}
+					ArrayDeque<Event> queue = playing.get(note);
+					if (queue == null) {
+						queue = new ArrayDeque<>();
+						playing.put(note, queue);
+					}
+					queue.add(event);
+				}
+				else if (command == ShortMessage.NOTE_OFF
+						|| command == ShortMessage.NOTE_ON) {
+					ArrayDeque<Event> queue = playing.get(note);
+					// one note off ends every note playing on that key
+					while (queue != null && !queue.isEmpty()) {
+						Event on = queue.remove();
+						on.duration = event.tick - on.tick;
+						// a note on with no velocity is the usual way to
+						// end a note, and is written like a default note off
+						on.offVelocity =
+								command == ShortMessage.NOTE_ON ? 64 : msg
+										.getData2();
+					}
+					continue;// the note line covers the off too
+				}
+			}
+			events.add(event);
+		}
+		// notes never turned off last until the end of the track
+		for (ArrayDeque<Event> queue : playing.values()) {
+			for (Event on : queue) {
+				on.duration = end - on.tick;
+			}
+		}
+	}
+
+	/**
+	 * Decodes a channel event.
+	 *
+	 * @return false if the event is not kept as a line
+	 */
+	private static boolean channelEvent(ShortMessage msg, Event event,
+			int division, int keySharps, Instruction instruction) {
+		StringBuilder text = instruction.text;
+		switch (msg.getCommand()) {
+		case ShortMessage.NOTE_ON:
+			text.append("NT  ");
+			MidiFileParser.noteName(msg.getData1(), keySharps, text);
+			text.append("   ");
+			MidiFileParser.fraction(event.duration, division, text);
+			if (event.newVelocity >= 0) {
+				text.append("   von=").append(event.newVelocity);
+			}
+			if (event.offVelocity != 64 && event.offVelocity >= 0) {
+				text.append("   voff=").append(event.offVelocity);
+			}
+			instruction.set(Opcode.NOTE, msg.getData1(), event.newVelocity);
+			return true;
+		case ShortMessage.PROGRAM_CHANGE:
+			text.append("Instrument ").append(msg.getData1() + 1);
+			instruction.set(Opcode.INSTRUMENT, msg.getData1() + 1, 0);
+			return true;
+		case ShortMessage.CONTROL_CHANGE:
+			if (msg.getData1() == 7) {
+				text.append("Channel volume ").append(msg.getData2());
+				instruction.set(Opcode.VOLUME, msg.getData2(), 0);
+				return true;
+			}
+			break;
+		case ShortMessage.CHANNEL_PRESSURE:
+			// only one data byte, which the text format can't hold
+			return false;
+		default:
+			break;
+		}
+		text.append("ST");
+		MidiFileParser.hex(msg.getStatus(), text);
+		MidiFileParser.hex(msg.getData1(), text);
+		MidiFileParser.hex(msg.getData2(), text);
+		instruction.set(Opcode.START_NOTE, msg.getStatus(),
+				msg.getData1() << 8 | msg.getData2());
+		return true;
+	}
+
+	private static void metaEvent(MetaMessage meta, Instruction instruction) {
+		StringBuilder text = instruction.text;
+		byte[] data = meta.getData();
+		int type = meta.getType();
+		if (type >= 1 && type <= 7) {
+			text.append("Text type ").append(type).append(": \"");
+			text.append(new String(data, StandardCharsets.ISO_8859_1));
+			text.append('"');
+			instruction.set(Opcode.TEXT, type, 0);
+		}
+		else if (type == 0x2F) {
+			text.append("End of track");
+			instruction.set(Opcode.END, 0, 0);
+		}
+		else if (type == 0x51 && data.length == 3) {
+			int micros =
+					((data[0] & 0xFF) << 16) | ((data[1] & 0xFF) << 8)
+							| (data[2] & 0xFF);
+			int tempo =
+					micros == 0 ? 0 : (int) Math.round(60000000.0 / micros);
+			text.append("Tempo ").append(tempo);
+			instruction.set(Opcode.TEMPO, tempo, 0);
+		}
+		else if (type == 0x58 && data.length == 4) {
+			int beat = 1 << (data[1] & 0x1F);
+			text.append("Time signature ").append(data[0] & 0xFF);
+			text.append('/').append(beat);
+			text.append(", clocks/mtick ").append(data[2] & 0xFF);
+			text.append(", crotchets/32ndnote ").append(data[3] & 0xFF);
+			instruction.set(Opcode.TIME_SIGNATURE, data[0] & 0xFF, beat);
+		}
+		else if (type == 0x59 && data.length == 2 && data[0] >= -7
+				&& data[0] <= 7) {
+			boolean minor = data[1] != 0;
+			text.append("Key ");
+			if (minor) {
+				text.append(LineScanner.MINOR_KEYS[data[0] + 7]);
+				text.append(" minor");
+			}
+			else {
+				text.append(LineScanner.MAJOR_KEYS[data[0] + 7]);
+				text.append(" major");
+			}
+			instruction.set(Opcode.KEY, data[0], minor ? 1 : 0);
+		}
+		else {
+			text.append("Meta Event   type");
+			MidiFileParser.hex(type, text);
+			if (data.length > 0) {
+				text.append("  ");
+			}
+			for (byte b : data) {
+				text.append(' ').append(b & 0xFF);
+			}
+			instruction.set(Opcode.META, type, 0);
+		}
+	}
+
+	private static void sysexEvent(SysexMessage sysex,
+			Instruction instruction) {
+		StringBuilder text = instruction.text;
+		text.append("Sysex event");
+		byte[] bytes = sysex.getMessage();
+		for (byte b : bytes) {
+			MidiFileParser.hex(b & 0xFF, text);
+		}
+		instruction.set(Opcode.SYSEX, bytes.length > 0 ? bytes[0] & 0xFF : 0,
+				0);
+	}
+
+	/**
+	 * Writes a note name with ' or - for each octave above or below the one
+	 * starting at middle C.
+	 */
+	private static void noteName(int key, int keySharps, StringBuilder text) {
+		int pitchClass = key % 12;
+		String name;
+		if (keySharps > 0) {
+			name = MidiFileParser.NAMES_SHARP[pitchClass];
+			if (keySharps >= 6 && pitchClass == 5) {
+				name = "E#";
+			}
+			else if (keySharps >= 7 && pitchClass == 0) {
+				name = "B#";
+			}
+		}
+		else if (keySharps < 0) {
+			name = MidiFileParser.NAMES_FLAT[pitchClass];
+			if (keySharps <= -6 && pitchClass == 11) {
+				name = "Cb";
+			}
+			else if (keySharps <= -7 && pitchClass == 4) {
+				name = "Fb";
+			}
+		}
+		else {
+			name = MidiFileParser.NAMES_NATURAL[pitchClass];
+		}
+		int accidental = 0;
+		if (name.length() > 1) {
+			accidental = name.charAt(1) == '#' ? 1 : -1;
+		}
+		int octave = Math.floorDiv(key - accidental - 60, 12);
+		text.append(name);
+		for (int i = 0; i < octave; ++i) {
+			text.append('\'');
+		}
+		for (int i = 0; i > octave; --i) {
+			text.append('-');
+		}
+	}
+
+	/**
+	 * Writes ticks as a number of crotchets, in the form a, b/c or a+b/c.
+	 */
+	static void fraction(long top, long bottom, StringBuilder text) {
+		long whole = top / bottom;
+		long rest = top % bottom;
+		if (rest == 0) {
+			text.append(whole);
+			return;
+		}
+		long divisor = MidiFileParser.gcd(rest, bottom);
+		if (whole > 0) {
+			text.append(whole).append('+');
+		}
+		text.append(rest / divisor).append('/').append(bottom / divisor);
+	}
+
+	private static long gcd(long a, long b) {
+		while (b != 0) {
+			long t = a % b;
+			a = b;
+			b = t;
+		}
+		return a;
+	}
+
+	private static void hex(int value, StringBuilder text) {
+		text.append(" &");
+		text.append(Character.toUpperCase(Character.forDigit(value >> 4, 16)));
+		text.append(Character.toUpperCase(Character.forDigit(value & 0xF, 16)));
+	}
+
+	/**
+	 * Works out which bar and crotchet a tick falls on, following the time
+	 * signature changes in the song. A time signature change starts a new
+	 * bar. Without one the song is in 4/4.
+	 */
+	private static final class Bars {
+		private final int division;
+		/**
+		 * For each section with the same time signature: its start tick, the
+		 * number of its first bar and the length of its bars in ticks.
+		 */
+		private final ArrayList<long[]> sections = new ArrayList<>();
+		private int current;
+
+		Bars(int division, ArrayList<Event> events) {
+			this.division = division;
+			this.sections.add(new long[] { 0, 1, 4L * division });
+			for (Event event : events) {
+				if (!(event.message instanceof MetaMessage)) {
+					continue;
+				}
+				MetaMessage meta = (MetaMessage) event.message;
+				byte[] data = meta.getData();
+				if (meta.getType() != 0x58 || data.length != 4) {
+					continue;
+				}
+				long length =
+						(data[0] & 0xFF) * 4L * division
+								/ (1L << (data[1] & 0x1F));
+				if (length <= 0) {
+					continue;
+				}
+				long[] last = this.sections.get(this.sections.size() - 1);
+				long offset = event.tick - last[0];
+				long bar = last[1] + offset / last[2];
+				if (offset % last[2] != 0) {
+					++bar;
+				}
+				if (event.tick == last[0]) {
+					last[2] = length;
+				}
+				else {
+					this.sections.add(new long[] { event.tick, bar, length });
+				}
+			}
+		}
+
+		/**
+		 * Creates the line for an instruction at the tick, with its bar and
+		 * the crotchet within the bar as a fraction in lowest terms. Ticks
+		 * must be asked for in order.
+		 */
+		Line line(long tick, int track, int channel, Instruction instruction) {
+			while (this.current + 1 < this.sections.size()
+					&& this.sections.get(this.current + 1)[0] <= tick) {
+				++this.current;
+			}
+			long[] section = this.sections.get(this.current);
+			long offset = tick - section[0];
+			long ticks = offset % section[2];
+			long divisor = MidiFileParser.gcd(ticks, this.division);
+			return new Line((int) (section[1] + offset / section[2]),
+					(int) (ticks / divisor), (int) (this.division / divisor),
+					track, channel, instruction.opcode,
+					instruction.firstOperand, instruction.secondOperand,
+					instruction.text.toString());
+		}
+	}
+}
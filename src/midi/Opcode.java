@@ -0,0 +1,97 @@
+package midi;
+
+/**
+ * The kinds of instruction a line can hold, in the order of the alternatives
+ * in {@link Line#regexInstruction}. Each instruction is decoded into its
+ * opcode and up to two numbers when it is scanned, so nothing later has to
+ * look at the text of the instruction to find out what it does. The meaning
+ * of the operands is listed with each opcode; operands that are not used are
+ * 0.
+ * <p>
+ * Numbers too large to fit in an int are stored as -1.
+ *
+ * @author Ches Burks
+ *
+ */
+public enum Opcode {
+	/**
+	 * Not a valid instruction, the line could not be read.
+	 */
+	NONE,
+	/**
+	 * A note. The first operand is the MIDI key number, with middle C as 60,
+	 * and the second is the on velocity, or -1 if the line does not give one.
+	 */
+	NOTE,
+	/**
+	 * Any other channel message, written as three hex bytes. The first
+	 * operand is the status byte and the second is the two data bytes, the
+	 * first data byte in the high 8 bits.
+	 */
+	START_NOTE,
+	/**
+	 * A text meta event. The first operand is the text type, from 1 to 7.
+	 */
+	TEXT,
+	/**
+	 * A meta event with no instruction of its own. The first operand is the
+	 * meta event type.
+	 */
+	META,
+	/**
+	 * A system exclusive message. The first operand is its first byte.
+	 */
+	SYSEX,
+	/**
+	 * The end of a track.
+	 */
+	END,
+	/**
+	 * A key signature. The first operand is the number of sharps, negative
+	 * for flats, and the second is 1 for a minor key and 0 otherwise.
+	 */
+	KEY,
+	/**
+	 * A tempo change. The first operand is the whole number of crotchets per
+	 * minute, without the fraction.
+	 */
+	TEMPO,
+	/**
+	 * An instrument change. The first operand is the instrument number.
+	 */
+	INSTRUMENT,
+	/**
+	 * A channel volume change. The first operand is the volume.
+	 */
+	VOLUME,
+	/**
+	 * A time signature. The first operand is the number of beats in a bar
+	 * and the second is the note value of a beat.
+	 */
+	TIME_SIGNATURE;
+
+	private static final Opcode[] VALUES = Opcode.values();
+
+	/**
+	 * Returns the byte used to store this opcode.
+	 *
+	 * @return the code of the opcode
+	 */
+	public byte getCode() {
+		return (byte) this.ordinal();
+	}
+
+	/**
+	 * Returns the opcode stored as the given byte.
+	 *
+	 * @param code the code of an opcode
+	 * @return the opcode with that code
+	 * @throws IllegalArgumentException if there is no opcode with that code
+	 */
+	public static Opcode fromCode(byte code) {
+		if (code < 0 || code >= Opcode.VALUES.length) {
+			throw new IllegalArgumentException("Invalid opcode " + code);
+		}
+		return Opcode.VALUES[code];
+	}
+}
@@ -0,0 +1,477 @@
+package midi;
+
+import java.io.File;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Collects counts and timings while songs are parsed, so the health and speed
+ * of loading can be checked without printing anything per line. Pass one to
+ * the parse methods that take it and read it back afterwards. Diagnostics from
+ * several parses can be combined with {@link #add(ParseDiagnostics)}.
+ * <p>
+ * Nothing is printed unless an echo stream is set with
+ * {@link #setEcho(PrintStream)}, in which case each rejected line and failed
+ * file is written to it as it is found.
+ * <p>
+ * Diagnostics are not thread safe, use one per thread and add them together
+ * afterwards. Times are summed over all parses, so with several threads they
+ * add up to more than the time that actually passed. Timing each line costs
+ * about as much as storing it, so the time spent storing lines is estimated
+ * from one line in {@link #STORE_SAMPLE_RATE}.
+ *
+ * @author Ches Burks
+ *
+ */
+public class ParseDiagnostics {
+	/**
+	 * The parts of loading a song that are timed.
+	 */
+	public enum Phase {
+		/**
+		 * Opening the file and reading its header.
+		 */
+		OPEN,
+		/**
+		 * Reading, scanning and filtering lines.
+		 */
+		PARSE,
+		/**
+		 * Adding the lines to the song.
+		 */
+		STORE,
+		/**
+		 * Checking, reading and writing the song cache.
+		 */
+		CACHE
+	}
+
+	/**
+	 * The most rejected lines, and the most failed files, that are kept as
+	 * examples.
+	 */
+	public static final int MAX_SAMPLES = 10;
+	/**
+	 * How often a stored line is timed. Must be a power of two.
+	 */
+	static final int STORE_SAMPLE_RATE = 16;
+
+	private final long[] opcodeCounts = new long[Opcode.values().length];
+	private final long[] phaseTimes = new long[Phase.values().length];
+	private final ArrayList<String> rejectedSamples = new ArrayList<>();
+	private final ArrayList<String> failedSamples = new ArrayList<>();
+	private long linesRead;
+	private long cachedLines;
+	private long rejectedLines;
+	private long filteredLines;
+	private long bytes;
+	private int files;
+	private int cachedFiles;
+	private int failedFiles;
+	private PrintStream echo;
+
+	private long linesStart;
+	private long storeSample;
+	private int storeCount;
+
+	/**
+	 * Sets a stream to print rejected lines and failed files to as they are
+	 * found, or null to not print them. Off by default.
+	 *
+	 * @param out the stream to print to, or null
+	 */
+	public void setEcho(PrintStream out) {
+		this.echo = out;
+	}
+
+	/**
+	 * Returns the stream rejected lines and failed files are printed to.
+	 *
+	 * @return the stream to print to, or null if nothing is printed
+	 */
+	public PrintStream getEcho() {
+		return this.echo;
+	}
+
+	/**
+	 * Returns the number of lines kept in songs with the given opcode.
+	 *
+	 * @param opcode the kind of instruction
+	 * @return how many lines with that opcode were kept
+	 */
+	public long getCount(Opcode opcode) {
+		return this.opcodeCounts[opcode.ordinal()];
+	}
+
+	/**
+	 * Returns the number of lines kept in songs.
+	 *
+	 * @return the number of lines kept
+	 */
+	public long getLinesKept() {
+		long total = 0;
+		for (long count : this.opcodeCounts) {
+			total += count;
+		}
+		return total;
+	}
+
+	/**
+	 * Returns the number of lines read from files, including blank lines and
+	 * comments but not headers. Songs loaded from the cache are not read, so
+	 * their lines are counted by {@link #getCachedLines()} instead.
+	 *
+	 * @return the number of lines read
+	 */
+	public long getLinesRead() {
+		return this.linesRead;
+	}
+
+	/**
+	 * Returns the number of lines in songs loaded from the cache.
+	 *
+	 * @return the number of cached lines
+	 */
+	public long getCachedLines() {
+		return this.cachedLines;
+	}
+
+	/**
+	 * Returns the number of lines that were not valid.
+	 *
+	 * @return the number of rejected lines
+	 */
+	public long getRejectedLines() {
+		return this.rejectedLines;
+	}
+
+	/**
+	 * Returns the number of valid lines dropped by the {@link LineFilter} the
+	 * songs were parsed with.
+	 *
+	 * @return the number of filtered lines
+	 */
+	public long getFilteredLines() {
+		return this.filteredLines;
+	}
+
+	/**
+	 * Returns up to {@link #MAX_SAMPLES} of the rejected lines, the first ones
+	 * found.
+	 *
+	 * @return examples of rejected lines
+	 */
+	public List<String> getRejectedSamples() {
+		return Collections.unmodifiableList(this.rejectedSamples);
+	}
+
+	/**
+	 * Returns up to {@link #MAX_SAMPLES} of the files that could not be
+	 * loaded, along with the reason.
+	 *
+	 * @return examples of failed files
+	 */
+	public List<String> getFailedSamples() {
+		return Collections.unmodifiableList(this.failedSamples);
+	}
+
+	/**
+	 * Returns the size of the files that were loaded.
+	 *
+	 * @return the number of bytes loaded
+	 */
+	public long getBytes() {
+		return this.bytes;
+	}
+
+	/**
+	 * Returns the number of files that were loaded, including the ones that
+	 * failed.
+	 *
+	 * @return the number of files
+	 */
+	public int getFiles() {
+		return this.files;
+	}
+
+	/**
+	 * Returns the number of files that were loaded from the song cache.
+	 *
+	 * @return the number of cached files
+	 */
+	public int getCachedFiles() {
+		return this.cachedFiles;
+	}
+
+	/**
+	 * Returns the number of files that could not be loaded.
+	 *
+	 * @return the number of failed files
+	 */
+	public int getFailedFiles() {
+		return this.failedFiles;
+	}
+
+	/**
+	 * Returns the time spent in the given phase.
+	 *
+	 * @param phase the phase of loading
+	 * @return the time in nanoseconds
+	 */
+	public long getTime(Phase phase) {
+		return this.phaseTimes[phase.ordinal()];
+	}
+
+	/**
+	 * Returns the time spent in all phases.
+	 *
+	 * @return the time in nanoseconds
+	 */
+	public long getTotalTime() {
+		long total = 0;
+		for (long time : this.phaseTimes) {
+			total += time;
+		}
+		return total;
+	}
+
+	/**
+	 * Returns the number of bytes loaded per second of loading time.
+	 *
+	 * @return the bytes per second, or 0 if nothing was timed
+	 */
+	public double getBytesPerSecond() {
+		return ParseDiagnostics.perSecond(this.bytes, this.getTotalTime());
+	}
+
+	/**
+	 * Returns the number of lines read from files per second of loading time.
+	 * Lines of songs from the cache are not counted.
+	 *
+	 * @return the lines per second, or 0 if nothing was timed
+	 */
+	public double getLinesPerSecond() {
+		return ParseDiagnostics.perSecond(this.linesRead, this.getTotalTime());
+	}
+
+	/**
+	 * Adds the counts and times of the other diagnostics to these. Samples
+	 * are added until there are {@link #MAX_SAMPLES} of them.
+	 *
+	 * @param other the diagnostics to add
+	 */
+	public void add(ParseDiagnostics other) {
+		for (int i = 0; i < this.opcodeCounts.length; ++i) {
+			this.opcodeCounts[i] += other.opcodeCounts[i];
+		}
+		for (int i = 0; i < this.phaseTimes.length; ++i) {
+			this.phaseTimes[i] += other.phaseTimes[i];
+		}
+		ParseDiagnostics.addSamples(this.rejectedSamples,
+				other.rejectedSamples);
+		ParseDiagnostics.addSamples(this.failedSamples, other.failedSamples);
+		this.linesRead += other.linesRead;
+		this.cachedLines += other.cachedLines;
+		this.rejectedLines += other.rejectedLines;
+		this.filteredLines += other.filteredLines;
+		this.bytes += other.bytes;
+		this.files += other.files;
+		this.cachedFiles += other.cachedFiles;
+		this.failedFiles += other.failedFiles;
+	}
+
+	/**
+	 * Prints a summary of the diagnostics.
+	 *
+	 * @param out the stream to print to
+	 */
+	public void print(PrintStream out) {
+		out.printf("Files: %,d (%,d from cache, %,d failed)%n", this.files,
+				this.cachedFiles, this.failedFiles);
+		out.printf("Lines: %,d read, %,d from cache, %,d kept, %,d rejected,"
+				+ " %,d filtered%n", this.linesRead, this.cachedLines,
+				this.getLinesKept(), this.rejectedLines, this.filteredLines);
+		for (Opcode opcode : Opcode.values()) {
+			if (this.getCount(opcode) > 0) {
+				out.printf("  %-16s %,d%n", opcode, this.getCount(opcode));
+			}
+		}
+		out.printf("Speed: %.1f MB/s, %,.0f lines/s%n",
+				this.getBytesPerSecond() / 1e6, this.getLinesPerSecond());
+		for (Phase phase : Phase.values()) {
+			out.printf("  %-16s %,d ms%n", phase,
+					this.getTime(phase) / 1000000);
+		}
+		ParseDiagnostics.printSamples("Rejected lines:", this.rejectedSamples,
+				out);
+		ParseDiagnostics.printSamples("Failed files:", this.failedSamples, out);
+	}
+
+	/**
+	 * Counts a line read from a file.
+	 */
+	void lineRead() {
+		++this.linesRead;
+	}
+
+	/**
+	 * Counts a line that was not valid.
+	 *
+	 * @param line the text of the line
+	 */
+	void rejected(CharSequence line) {
+		++this.rejectedLines;
+		if (this.rejectedSamples.size() < ParseDiagnostics.MAX_SAMPLES) {
+			this.rejectedSamples.add(line.toString());
+		}
+		if (this.echo != null) {
+			this.echo.println(line);
+		}
+	}
+
+	/**
+	 * Counts a valid line that was dropped by the line filter.
+	 */
+	void filtered() {
+		++this.filteredLines;
+	}
+
+	/**
+	 * Counts a line that was kept.
+	 *
+	 * @param opcode the opcode of the line
+	 */
+	void kept(Opcode opcode) {
+		++this.opcodeCounts[opcode.ordinal()];
+	}
+
+	/**
+	 * Counts a file that was parsed.
+	 *
+	 * @param file the file
+	 */
+	void fileParsed(File file) {
+		++this.files;
+		this.bytes += file.length();
+	}
+
+	/**
+	 * Counts a file that was loaded from the cache, along with the lines of
+	 * its song.
+	 *
+	 * @param file the source file
+	 * @param song the cached song
+	 */
+	void fileCached(File file, Song song) {
+		++this.files;
+		++this.cachedFiles;
+		this.bytes += file.length();
+		this.cachedLines += song.size();
+		for (int i = 0; i < song.size(); ++i) {
+			this.kept(song.getOpcode(i));
+		}
+	}
+
+	/**
+	 * Counts a file that could not be loaded.
+	 *
+	 * @param file the file
+	 * @param cause why it failed
+	 */
+	void fileFailed(File file, Exception cause) {
+		++this.failedFiles;
+		String message = file.getName() + ": " + cause;
+		if (this.failedSamples.size() < ParseDiagnostics.MAX_SAMPLES) {
+			this.failedSamples.add(message);
+		}
+		if (this.echo != null) {
+			this.echo.println(message);
+		}
+	}
+
+	/**
+	 * Starts timing the lines of a song.
+	 */
+	void startLines() {
+		this.storeSample = 0;
+		this.storeCount = 0;
+		this.linesStart = System.nanoTime();
+	}
+
+	/**
+	 * Counts a line that is about to be stored, and returns true if the time
+	 * taken to store it should be passed to {@link #storeTimed(long)}. One
+	 * line in {@link #STORE_SAMPLE_RATE} is timed.
+	 *
+	 * @return true if storing the line should be timed
+	 */
+	boolean timeStore() {
+		++this.storeCount;
+		return (this.storeCount
+				& (ParseDiagnostics.STORE_SAMPLE_RATE - 1)) == 0;
+	}
+
+	/**
+	 * Records the time taken to store a line picked by {@link #timeStore()}.
+	 *
+	 * @param nanos the time in nanoseconds
+	 */
+	void storeTimed(long nanos) {
+		this.storeSample += nanos;
+	}
+
+	/**
+	 * Splits the time since {@link #startLines()} between parsing and
+	 * storing.
+	 *
+	 * @param trimNanos the time spent trimming the finished song, which is
+	 *            counted as storing
+	 */
+	void endLines(long trimNanos) {
+		long lines = System.nanoTime() - trimNanos - this.linesStart;
+		long stored =
+				Math.min(lines, this.storeSample
+						* ParseDiagnostics.STORE_SAMPLE_RATE);
+		this.addTime(Phase.PARSE, lines - stored);
+		this.addTime(Phase.STORE, stored + trimNanos);
+	}
+
+	/**
+	 * Adds time to a phase.
+	 *
+	 * @param phase the phase
+	 * @param nanos the time in nanoseconds
+	 */
+	void addTime(Phase phase, long nanos) {
+		this.phaseTimes[phase.ordinal()] += nanos;
+	}
+
+	private static double perSecond(long amount, long nanos) {
+		if (nanos <= 0) {
+			return 0;
+		}
+		return amount / (nanos / 1e9);
+	}
+
+	private static void addSamples(List<String> to, List<String> from) {
+		for (String sample : from) {
+			if (to.size() >= ParseDiagnostics.MAX_SAMPLES) {
+				return;
+			}
+			to.add(sample);
+		}
+	}
+
+	private static void printSamples(String title, List<String> samples,
+			PrintStream out) {
+		if (samples.isEmpty()) {
+			return;
+		}
+		out.println(title);
+		for (String sample : samples) {
+			out.println("  " + sample);
+		}
+	}
+}
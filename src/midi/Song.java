@@ -1,22 +1,88 @@
 package midi;
 
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 
 /**
  * Represents a midi song loaded from file.
- * 
+ * <p>
+ * Lines are not kept as objects. Each field is stored in its own primitive
+ * array (one column per field) and instructions are kept once in a table that
+ * the lines refer to by index. {@link #getLine(int)} builds a {@link Line} for
+ * callers that want one, but scanning the columns directly with the indexed
+ * getters is much cheaper.
+ * <p>
+ * Each line keeps the {@link Opcode} of its instruction as a byte, and the
+ * numbers decoded from the instruction are stored once per table entry, so
+ * lines can be told apart without looking at the text. Instruction text is
+ * interned, so songs share the copies of instructions they have in common.
+ * <p>
+ * Tracks and channels are stored in a byte each. If a line with a track or
+ * channel outside 0 to 255 is added, that column is widened to ints, so any
+ * processed line can be stored.
+ * <p>
+ * Each line also has its absolute time in ticks, worked out from the bar,
+ * crotchet, division and the time signatures seen so far. Ticks are exact
+ * integers, so lines can be sorted with {@link #sortByTick()} in linear time
+ * and lines that start together can be found by comparing ticks for equality.
+ *
  * @author Ches Burks
  *
  */
 public class Song {
+	private static final int INITIAL_CAPACITY = 64;
+	/**
+	 * The number of opcodes, kept so reading a song does not copy the array
+	 * of values for every line
+	 */
+	private static final int OPCODES = Opcode.values().length;
+
 	private int numTracks;
 	private int midiFormat;
 	private int numDivisions;
-	private ArrayList<Line> lines;
+
+	private int size;
+	private int[] ticks;
+	private int[] bars;
+	private int[] crotchetTops;
+	private int[] crotchetBottoms;
+	private byte[] tracks;
+	private byte[] channels;
+	/**
+	 * The tracks and channels, once a value too large for a byte has been
+	 * added. The byte column is null from then on.
+	 */
+	private int[] wideTracks;
+	private int[] wideChannels;
+	private byte[] opcodes;
+	private int[] instructions;
+
+	/**
+	 * Each distinct instruction in the song, indexed by the instructions
+	 * column, along with the operands decoded from it.
+	 */
+	private ArrayList<String> instructionTable;
+	private int[] firstOperands;
+	private int[] secondOperands;
+	private HashMap<String, Integer> instructionIndex;
+
+	/**
+	 * For each section with the same time signature: its first bar, the tick
+	 * it starts on and the length of its bars in ticks.
+	 */
+	private ArrayList<long[]> sections;
+	private boolean sortedByTick;
 
 	/**
 	 * Creates a song with no lines and the given information.
-	 * 
+	 *
 	 * @param format the format of the midi file
 	 * @param tracks how many tracks this song originally had
 	 * @param divisions overall division of crotchets (fractional times must
@@ -26,16 +92,319 @@ public class Song {
 		this.midiFormat = format;
 		this.numTracks = tracks;
 		this.numDivisions = divisions;
-		this.lines = new ArrayList<>();
+		this.size = 0;
+		this.ticks = new int[Song.INITIAL_CAPACITY];
+		this.bars = new int[Song.INITIAL_CAPACITY];
+		this.crotchetTops = new int[Song.INITIAL_CAPACITY];
+		this.crotchetBottoms = new int[Song.INITIAL_CAPACITY];
+		this.tracks = new byte[Song.INITIAL_CAPACITY];
+		this.channels = new byte[Song.INITIAL_CAPACITY];
+		this.opcodes = new byte[Song.INITIAL_CAPACITY];
+		this.instructions = new int[Song.INITIAL_CAPACITY];
+		this.instructionTable = new ArrayList<>();
+		this.firstOperands = new int[Song.INITIAL_CAPACITY];
+		this.secondOperands = new int[Song.INITIAL_CAPACITY];
+		this.instructionIndex = new HashMap<>();
+		this.sections = new ArrayList<>();
+		this.sections.add(new long[] { 1, 0, 4L * divisions });
+		this.sortedByTick = true;
 	}
 
 	/**
-	 * Adds the given line to the end of the song.
-	 * 
+	 * Adds the given line to the end of the song. The line must already be
+	 * processed.
+	 *
 	 * @param toAdd the line to add
 	 */
 	public void addLine(Line toAdd) {
-		this.lines.add(toAdd);
+		if (this.size == this.bars.length) {
+			this.resize(this.size * 2);
+		}
+		long crotchetTicks =
+				this.crotchetTicks(toAdd.getCrotchetTop(),
+						toAdd.getCrotchetBottom());
+		long tick = this.barTick(toAdd.getBar()) + crotchetTicks;
+		if (toAdd.getOpcode() == Opcode.TIME_SIGNATURE) {
+			this.addSection(toAdd.getBar(), tick, crotchetTicks,
+					toAdd.getFirstOperand(), toAdd.getSecondOperand());
+		}
+		// only nonsense bar numbers get this far, keep them in order at least
+		tick = Math.max(Integer.MIN_VALUE, Math.min(Integer.MAX_VALUE, tick));
+		int i = this.size;
+		if (i > 0 && tick < this.ticks[i - 1]) {
+			this.sortedByTick = false;
+		}
+		this.ticks[i] = (int) tick;
+		this.bars[i] = toAdd.getBar();
+		this.crotchetTops[i] = toAdd.getCrotchetTop();
+		this.crotchetBottoms[i] = toAdd.getCrotchetBottom();
+		int track = toAdd.getTrack();
+		if (this.wideTracks == null && (track < 0 || track > 0xFF)) {
+			this.wideTracks = Song.widen(this.tracks);
+			this.tracks = null;
+		}
+		if (this.wideTracks != null) {
+			this.wideTracks[i] = track;
+		}
+		else {
+			this.tracks[i] = (byte) track;
+		}
+		int channel = toAdd.getChannel();
+		if (this.wideChannels == null && (channel < 0 || channel > 0xFF)) {
+			this.wideChannels = Song.widen(this.channels);
+			this.channels = null;
+		}
+		if (this.wideChannels != null) {
+			this.wideChannels[i] = channel;
+		}
+		else {
+			this.channels[i] = (byte) channel;
+		}
+		this.opcodes[i] = toAdd.getOpcode().getCode();
+		this.instructions[i] = this.indexOf(toAdd);
+		++this.size;
+	}
+
+	/**
+	 * Returns the format of the midi file.
+	 *
+	 * @return the midi format
+	 */
+	public int getFormat() {
+		return this.midiFormat;
+	}
+
+	/**
+	 * Returns how many tracks the song originally had.
+	 *
+	 * @return the number of tracks
+	 */
+	public int getNumTracks() {
+		return this.numTracks;
+	}
+
+	/**
+	 * Returns the overall division of crotchets.
+	 *
+	 * @return the number of divisions
+	 */
+	public int getDivisions() {
+		return this.numDivisions;
+	}
+
+	/**
+	 * Returns the number of lines in the song.
+	 *
+	 * @return the number of lines
+	 */
+	public int size() {
+		return this.size;
+	}
+
+	/**
+	 * Creates a line holding the values stored at the given index.
+	 *
+	 * @param index the index of the line
+	 * @return a new line with the values of that line
+	 */
+	public Line getLine(int index) {
+		this.checkIndex(index);
+		return new Line(this.bars[index], this.crotchetTops[index],
+				this.crotchetBottoms[index], this.track(index),
+				this.channel(index),
+				Opcode.fromCode(this.opcodes[index]),
+				this.firstOperands[this.instructions[index]],
+				this.secondOperands[this.instructions[index]],
+				this.instructionTable.get(this.instructions[index]));
+	}
+
+	/**
+	 * Returns the absolute time of the line at the given index, in ticks from
+	 * the start of the song. There are {@link #getDivisions()} ticks to a
+	 * crotchet.
+	 *
+	 * @param index the index of the line
+	 * @return the tick the line starts on
+	 */
+	public int getTick(int index) {
+		this.checkIndex(index);
+		return this.ticks[index];
+	}
+
+	/**
+	 * Returns the bar of the line at the given index.
+	 *
+	 * @param index the index of the line
+	 * @return the bar
+	 */
+	public int getBar(int index) {
+		this.checkIndex(index);
+		return this.bars[index];
+	}
+
+	/**
+	 * Returns the crotchet of the line at the given index.
+	 *
+	 * @param index the index of the line
+	 * @return the crotchet
+	 */
+	public float getCrotchet(int index) {
+		this.checkIndex(index);
+		return ((float) this.crotchetTops[index])
+				/ ((float) this.crotchetBottoms[index]);
+	}
+
+	/**
+	 * Returns the track of the line at the given index.
+	 *
+	 * @param index the index of the line
+	 * @return the track
+	 */
+	public int getTrack(int index) {
+		this.checkIndex(index);
+		return this.track(index);
+	}
+
+	/**
+	 * Returns the channel of the line at the given index.
+	 *
+	 * @param index the index of the line
+	 * @return the channel
+	 */
+	public int getChannel(int index) {
+		this.checkIndex(index);
+		return this.channel(index);
+	}
+
+	/**
+	 * Returns the kind of instruction of the line at the given index.
+	 *
+	 * @param index the index of the line
+	 * @return the opcode
+	 */
+	public Opcode getOpcode(int index) {
+		this.checkIndex(index);
+		return Opcode.fromCode(this.opcodes[index]);
+	}
+
+	/**
+	 * Returns the first number decoded from the instruction of the line at
+	 * the given index. What it means depends on the {@link Opcode}.
+	 *
+	 * @param index the index of the line
+	 * @return the first operand
+	 */
+	public int getFirstOperand(int index) {
+		this.checkIndex(index);
+		return this.firstOperands[this.instructions[index]];
+	}
+
+	/**
+	 * Returns the second number decoded from the instruction of the line at
+	 * the given index. What it means depends on the {@link Opcode}.
+	 *
+	 * @param index the index of the line
+	 * @return the second operand
+	 */
+	public int getSecondOperand(int index) {
+		this.checkIndex(index);
+		return this.secondOperands[this.instructions[index]];
+	}
+
+	/**
+	 * Returns the instruction of the line at the given index.
+	 *
+	 * @param index the index of the line
+	 * @return the instruction
+	 */
+	public String getInstruction(int index) {
+		this.checkIndex(index);
+		return this.instructionTable.get(this.instructions[index]);
+	}
+
+	/**
+	 * Returns the index just past the last line that starts on the same tick
+	 * as the given line, which is the end of the chord it belongs to. The
+	 * song must be sorted by tick for this to find the whole chord.
+	 *
+	 * @param index the index of the first line of the chord
+	 * @return the index after the end of the chord
+	 */
+	public int getChordEnd(int index) {
+		this.checkIndex(index);
+		int tick = this.ticks[index];
+		int end = index + 1;
+		while (end < this.size && this.ticks[end] == tick) {
+			++end;
+		}
+		return end;
+	}
+
+	/**
+	 * Sorts the lines by tick. Lines on the same tick keep their order. This
+	 * is a radix sort, so it runs in linear time, and does nothing if the
+	 * lines are already in order.
+	 */
+	public void sortByTick() {
+		if (this.sortedByTick) {
+			return;
+		}
+		int[] order = new int[this.size];
+		int[] buffer = new int[this.size];
+		for (int i = 0; i < this.size; ++i) {
+			order[i] = i;
+		}
+		// two passes of 16 bits, flipping the sign bit so negatives go first
+		for (int shift = 0; shift < 32; shift += 16) {
+			int[] counts = new int[(1 << 16) + 1];
+			for (int i = 0; i < this.size; ++i) {
+				++counts[Song.digit(this.ticks[i], shift) + 1];
+			}
+			for (int i = 1; i < counts.length; ++i) {
+				counts[i] += counts[i - 1];
+			}
+			for (int index : order) {
+				buffer[counts[Song.digit(this.ticks[index], shift)]++] = index;
+			}
+			int[] swap = order;
+			order = buffer;
+			buffer = swap;
+		}
+		this.ticks = Song.permute(this.ticks, order);
+		this.bars = Song.permute(this.bars, order);
+		this.crotchetTops = Song.permute(this.crotchetTops, order);
+		this.crotchetBottoms = Song.permute(this.crotchetBottoms, order);
+		this.instructions = Song.permute(this.instructions, order);
+		if (this.wideTracks != null) {
+			this.wideTracks = Song.permute(this.wideTracks, order);
+		}
+		else {
+			this.tracks = Song.permute(this.tracks, order);
+		}
+		if (this.wideChannels != null) {
+			this.wideChannels = Song.permute(this.wideChannels, order);
+		}
+		else {
+			this.channels = Song.permute(this.channels, order);
+		}
+		this.opcodes = Song.permute(this.opcodes, order);
+		this.sortedByTick = true;
+	}
+
+	/**
+	 * Shrinks the columns to the number of lines stored, to free the spare
+	 * room left from adding lines. The instruction lookup used while adding
+	 * is dropped too and rebuilt if more lines are added.
+	 */
+	public void trimToSize() {
+		if (this.size < this.bars.length) {
+			this.resize(this.size);
+		}
+		int tableSize = this.instructionTable.size();
+		this.instructionTable.trimToSize();
+		this.firstOperands = Arrays.copyOf(this.firstOperands, tableSize);
+		this.secondOperands = Arrays.copyOf(this.secondOperands, tableSize);
+		this.instructionIndex = null;
 	}
 
 	/**
@@ -46,6 +415,313 @@ public class Song {
 		System.out.print("Format: " + this.midiFormat + " ");
 		System.out.print("Divisions: " + this.numDivisions + " ");
 		System.out.println();
-		System.out.println("Num Lines:" + this.lines.size());
+		System.out.println("Num Lines:" + this.size);
+	}
+
+	/**
+	 * Writes the song in the binary form read by {@link #read(ByteBuffer)}.
+	 *
+	 * @param out where to write the song
+	 * @throws IOException if the song cannot be written
+	 */
+	void write(DataOutputStream out) throws IOException {
+		out.writeInt(this.midiFormat);
+		out.writeInt(this.numTracks);
+		out.writeInt(this.numDivisions);
+		out.writeInt(this.instructionTable.size());
+		for (int i = 0; i < this.instructionTable.size(); ++i) {
+			String instruction = this.instructionTable.get(i);
+			byte[] bytes = instruction.getBytes(StandardCharsets.UTF_8);
+			out.writeInt(bytes.length);
+			out.write(bytes);
+			out.writeInt(this.firstOperands[i]);
+			out.writeInt(this.secondOperands[i]);
+		}
+		out.writeInt(this.sections.size());
+		for (long[] section : this.sections) {
+			out.writeLong(section[0]);
+			out.writeLong(section[1]);
+			out.writeLong(section[2]);
+		}
+		out.writeInt(this.size);
+		out.writeBoolean(this.sortedByTick);
+		out.writeBoolean(this.wideTracks != null);
+		out.writeBoolean(this.wideChannels != null);
+		for (int i = 0; i < this.size; ++i) {
+			out.writeInt(this.ticks[i]);
+		}
+		for (int i = 0; i < this.size; ++i) {
+			out.writeInt(this.bars[i]);
+		}
+		for (int i = 0; i < this.size; ++i) {
+			out.writeInt(this.crotchetTops[i]);
+		}
+		for (int i = 0; i < this.size; ++i) {
+			out.writeInt(this.crotchetBottoms[i]);
+		}
+		for (int i = 0; i < this.size; ++i) {
+			out.writeInt(this.instructions[i]);
+		}
+		if (this.wideTracks != null) {
+			for (int i = 0; i < this.size; ++i) {
+				out.writeInt(this.wideTracks[i]);
+			}
+		}
+		else {
+			out.write(this.tracks, 0, this.size);
+		}
+		if (this.wideChannels != null) {
+			for (int i = 0; i < this.size; ++i) {
+				out.writeInt(this.wideChannels[i]);
+			}
+		}
+		else {
+			out.write(this.channels, 0, this.size);
+		}
+		out.write(this.opcodes, 0, this.size);
+	}
+
+	/**
+	 * Reads a song written by {@link #write(DataOutputStream)}. The columns
+	 * are copied out of the buffer in bulk.
+	 *
+	 * @param in the buffer to read from, in big endian order
+	 * @return the song that was read
+	 * @throws BufferUnderflowException if the buffer ends too early
+	 * @throws IllegalArgumentException if the data is not valid
+	 */
+	static Song read(ByteBuffer in) {
+		Song song = new Song(in.getInt(), in.getInt(), in.getInt());
+		int tableSize = in.getInt();
+		if (tableSize < 0 || tableSize > in.remaining()) {
+			throw new IllegalArgumentException("Invalid instruction count");
+		}
+		song.instructionTable = new ArrayList<>(tableSize);
+		song.firstOperands = new int[tableSize];
+		song.secondOperands = new int[tableSize];
+		song.instructionIndex = null;
+		for (int i = 0; i < tableSize; ++i) {
+			int length = in.getInt();
+			if (length < 0 || length > in.remaining()) {
+				throw new IllegalArgumentException("Invalid instruction");
+			}
+			byte[] bytes = new byte[length];
+			in.get(bytes);
+			song.instructionTable.add(new String(bytes,
+					StandardCharsets.UTF_8).intern());
+			song.firstOperands[i] = in.getInt();
+			song.secondOperands[i] = in.getInt();
+		}
+		int sectionCount = in.getInt();
+		if (sectionCount < 1 || sectionCount > in.remaining()) {
+			throw new IllegalArgumentException("Invalid section count");
+		}
+		song.sections = new ArrayList<>(sectionCount);
+		for (int i = 0; i < sectionCount; ++i) {
+			song.sections.add(new long[] { in.getLong(), in.getLong(),
+					in.getLong() });
+		}
+		int size = in.getInt();
+		if (size < 0 || size > in.remaining()) {
+			throw new IllegalArgumentException("Invalid line count");
+		}
+		song.size = size;
+		song.sortedByTick = in.get() != 0;
+		if (in.get() != 0) {
+			song.wideTracks = new int[0];
+			song.tracks = null;
+		}
+		if (in.get() != 0) {
+			song.wideChannels = new int[0];
+			song.channels = null;
+		}
+		song.resize(size);
+		IntBuffer ints = in.asIntBuffer();
+		ints.get(song.ticks, 0, size);
+		ints.get(song.bars, 0, size);
+		ints.get(song.crotchetTops, 0, size);
+		ints.get(song.crotchetBottoms, 0, size);
+		ints.get(song.instructions, 0, size);
+		in.position(in.position() + ints.position() * 4);
+		if (song.wideTracks != null) {
+			in.asIntBuffer().get(song.wideTracks, 0, size);
+			in.position(in.position() + size * 4);
+		}
+		else {
+			in.get(song.tracks, 0, size);
+		}
+		if (song.wideChannels != null) {
+			in.asIntBuffer().get(song.wideChannels, 0, size);
+			in.position(in.position() + size * 4);
+		}
+		else {
+			in.get(song.channels, 0, size);
+		}
+		in.get(song.opcodes, 0, size);
+		for (int i = 0; i < size; ++i) {
+			if (song.instructions[i] < 0 || song.instructions[i] >= tableSize
+					|| song.opcodes[i] < 0
+					|| song.opcodes[i] >= Song.OPCODES
+					|| (song.sortedByTick && i > 0
+							&& song.ticks[i] < song.ticks[i - 1])) {
+				throw new IllegalArgumentException("Invalid line " + i);
+			}
+		}
+		return song;
+	}
+
+	/**
+	 * Returns the index of the line's instruction in the table, adding it and
+	 * its operands if needed.
+	 *
+	 * @param line the line to look up the instruction of
+	 * @return its index in the instruction table
+	 */
+	private int indexOf(Line line) {
+		String instruction = line.getInstruction();
+		if (this.instructionIndex == null) {
+			this.instructionIndex = new HashMap<>();
+			for (int i = 0; i < this.instructionTable.size(); ++i) {
+				this.instructionIndex.put(this.instructionTable.get(i), i);
+			}
+		}
+		Integer index = this.instructionIndex.get(instruction);
+		if (index == null) {
+			index = this.instructionTable.size();
+			if (index == this.firstOperands.length) {
+				int capacity = Math.max(index * 2, Song.INITIAL_CAPACITY);
+				this.firstOperands =
+						Arrays.copyOf(this.firstOperands, capacity);
+				this.secondOperands =
+						Arrays.copyOf(this.secondOperands, capacity);
+			}
+			instruction = instruction.intern();
+			this.instructionTable.add(instruction);
+			this.firstOperands[index] = line.getFirstOperand();
+			this.secondOperands[index] = line.getSecondOperand();
+			this.instructionIndex.put(instruction, index);
+		}
+		return index;
+	}
+
+	/**
+	 * Returns the tick the bar starts on, using the time signature section
+	 * the bar is in.
+	 */
+	private long barTick(int bar) {
+		int current = this.sections.size() - 1;
+		while (current > 0 && this.sections.get(current)[0] > bar) {
+			--current;
+		}
+		long[] section = this.sections.get(current);
+		return section[1] + (bar - section[0]) * section[2];
+	}
+
+	/**
+	 * Returns the number of ticks in the given fraction of crotchets, rounded
+	 * to the nearest tick. A fraction with a bottom of 0 or less is 0 ticks,
+	 * so the line is placed at the start of its bar.
+	 */
+	private long crotchetTicks(int top, int bottom) {
+		if (bottom <= 0) {
+			return 0;
+		}
+		return Math.floorDiv(2L * top * this.numDivisions + bottom,
+				2L * bottom);
+	}
+
+	/**
+	 * Starts a new time signature section at the given time signature line.
+	 * A time signature part way through a bar starts a new bar.
+	 */
+	private void addSection(int bar, long tick, long crotchetTicks, int top,
+			int bottom) {
+		long length = bottom > 0 ? top * 4L * this.numDivisions / bottom : 0;
+		if (length <= 0) {
+			return;
+		}
+		long firstBar = crotchetTicks == 0 ? bar : bar + 1L;
+		long[] last = this.sections.get(this.sections.size() - 1);
+		if (firstBar == last[0]) {
+			last[2] = length;
+		}
+		else if (firstBar > last[0]) {
+			this.sections.add(new long[] { firstBar, tick, length });
+		}
+	}
+
+	private int track(int index) {
+		if (this.wideTracks != null) {
+			return this.wideTracks[index];
+		}
+		return this.tracks[index] & 0xFF;
+	}
+
+	private int channel(int index) {
+		if (this.wideChannels != null) {
+			return this.wideChannels[index];
+		}
+		return this.channels[index] & 0xFF;
+	}
+
+	/**
+	 * Copies a byte column into ints, for when a value too large for a byte
+	 * is added to it.
+	 */
+	private static int[] widen(byte[] column) {
+		int[] wide = new int[column.length];
+		for (int i = 0; i < column.length; ++i) {
+			wide[i] = column[i] & 0xFF;
+		}
+		return wide;
+	}
+
+	private static int digit(int tick, int shift) {
+		return ((tick ^ Integer.MIN_VALUE) >>> shift) & 0xFFFF;
+	}
+
+	private static int[] permute(int[] column, int[] order) {
+		int[] sorted = new int[column.length];
+		for (int i = 0; i < order.length; ++i) {
+			sorted[i] = column[order[i]];
+		}
+		return sorted;
+	}
+
+	private static byte[] permute(byte[] column, int[] order) {
+		byte[] sorted = new byte[column.length];
+		for (int i = 0; i < order.length; ++i) {
+			sorted[i] = column[order[i]];
+		}
+		return sorted;
+	}
+
+	private void resize(int capacity) {
+		int newCapacity = Math.max(capacity, 1);
+		this.ticks = Arrays.copyOf(this.ticks, newCapacity);
+		this.bars = Arrays.copyOf(this.bars, newCapacity);
+		this.crotchetTops = Arrays.copyOf(this.crotchetTops, newCapacity);
+		this.crotchetBottoms = Arrays.copyOf(this.crotchetBottoms, newCapacity);
+		if (this.wideTracks != null) {
+			this.wideTracks = Arrays.copyOf(this.wideTracks, newCapacity);
+		}
+		else {
+			this.tracks = Arrays.copyOf(this.tracks, newCapacity);
+		}
+		if (this.wideChannels != null) {
+			this.wideChannels = Arrays.copyOf(this.wideChannels, newCapacity);
+		}
+		else {
+			this.channels = Arrays.copyOf(this.channels, newCapacity);
+		}
+		this.opcodes = Arrays.copyOf(this.opcodes, newCapacity);
+		this.instructions = Arrays.copyOf(this.instructions, newCapacity);
+	}
+
+	private void checkIndex(int index) {
+		if (index < 0 || index >= this.size) {
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: "
+					+ this.size);
+		}
 	}
 }
@@ -0,0 +1,225 @@
+package midi;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.zip.CRC32;
+
+/**
+ * Keeps a binary copy of each parsed song so that files only have to be
+ * parsed once. The copy is stored in a cache directory under the name of the
+ * source file and records the size, modification time and CRC32 of the
+ * source. If any of those no longer match, the source is parsed again and the
+ * copy is replaced.
+ * <p>
+ * The cache is only ever a shortcut. If it cannot be read or written the song
+ * is parsed from the source as usual.
+ *
+ * @author Ches Burks
+ *
+ */
+public class SongCache {
+	/**
+	 * The name of the directory caches are stored in by default, created next
+	 * to the source files.
+	 */
+	public static final String DIRECTORY_NAME = ".songcache";
+	/**
+	 * Added to the source file name to name the cached copy.
+	 */
+	public static final String EXTENSION = ".song";
+
+	private static final int MAGIC = 0x534F4E47;// "SONG"
+	/**
+	 * Increased whenever the layout of a stored song changes, which makes all
+	 * older copies invalid.
+	 */
+	private static final int VERSION = 4;
+
+	/**
+	 * Loads the song from the default cache directory next to the source, or
+	 * parses the source and caches it if there is no valid copy.
+	 *
+	 * @param source the mid2asc.exe output file
+	 * @return the song, or null if the source is not a valid song
+	 */
+	public static Song load(File source) {
+		return SongCache.load(source, new ParseDiagnostics());
+	}
+
+	/**
+	 * Works like {@link #load(File)} and records what happened in the given
+	 * diagnostics.
+	 *
+	 * @param source the mid2asc.exe output file
+	 * @param diagnostics where to record what happened
+	 * @return the song, or null if the source is not a valid song
+	 */
+	public static Song load(File source, ParseDiagnostics diagnostics) {
+		File directory =
+				new File(source.getAbsoluteFile().getParentFile(),
+						SongCache.DIRECTORY_NAME);
+		return SongCache.load(source, directory, diagnostics);
+	}
+
+	/**
+	 * Loads the song from the given cache directory, or parses the source and
+	 * caches it there if there is no valid copy.
+	 *
+	 * @param source the mid2asc.exe output file
+	 * @param cacheDirectory the directory to keep copies in
+	 * @return the song, or null if the source is not a valid song
+	 */
+	public static Song load(File source, File cacheDirectory) {
+		return SongCache.load(source, cacheDirectory, new ParseDiagnostics());
+	}
+
+	/**
+	 * Works like {@link #load(File, File)} and records what happened in the
+	 * given diagnostics. Time spent checking, reading and writing the copy is
+	 * counted as {@link ParseDiagnostics.Phase#CACHE}.
+	 *
+	 * @param source the mid2asc.exe output file
+	 * @param cacheDirectory the directory to keep copies in
+	 * @param diagnostics where to record what happened
+	 * @return the song, or null if the source is not a valid song
+	 */
+	public static Song load(File source, File cacheDirectory,
+			ParseDiagnostics diagnostics) {
+		File cached = new File(cacheDirectory, source.getName()
+				+ SongCache.EXTENSION);
+		long start = System.nanoTime();
+		long size = source.length();
+		long modified = source.lastModified();
+		long checksum;
+		try {
+			checksum = SongCache.checksum(source);
+		}
+		catch (IOException e) {
+			// can't read the source, let the parser report it
+			return AsciiParser.parseMapped(source, diagnostics);
+		}
+
+		Song song = SongCache.read(cached, size, modified, checksum);
+		diagnostics.addTime(ParseDiagnostics.Phase.CACHE, System.nanoTime()
+				- start);
+		if (song != null) {
+			diagnostics.fileCached(source, song);
+			return song;
+		}
+		song = AsciiParser.parseMapped(source, diagnostics);
+		if (song != null) {
+			start = System.nanoTime();
+			SongCache.write(song, cached, size, modified, checksum);
+			diagnostics.addTime(ParseDiagnostics.Phase.CACHE,
+					System.nanoTime() - start);
+		}
+		return song;
+	}
+
+	/**
+	 * Reads the cached song if it exists and was made from a source with the
+	 * given size, modification time and checksum.
+	 *
+	 * @return the song, or null if there is no valid copy
+	 */
+	private static Song read(File cached, long size, long modified,
+			long checksum) {
+		if (!cached.isFile()) {
+			return null;
+		}
+		try (RandomAccessFile raf = new RandomAccessFile(cached, "r");
+				FileChannel channel = raf.getChannel()) {
+			if (channel.size() > Integer.MAX_VALUE) {
+				return null;
+			}
+			ByteBuffer buffer = ByteBuffer.allocate((int) channel.size());
+			while (buffer.hasRemaining()) {
+				if (channel.read(buffer) < 0) {
+					return null;
+				}
+			}
+			buffer.flip();
+			if (buffer.getInt() != SongCache.MAGIC
+					|| buffer.getInt() != SongCache.VERSION
+					|| buffer.getLong() != size
+					|| buffer.getLong() != modified
+					|| buffer.getLong() != checksum) {
+				return null;
+			}
+			return Song.read(buffer);
+		}
+		catch (IOException | BufferUnderflowException
+				| IllegalArgumentException e) {
+			// a stale or damaged copy is the same as no copy
+			return null;
+		}
+	}
+
+	/**
+	 * Writes the song to a temporary file and then moves it into place, so a
+	 * copy is never seen half written.
+	 */
+	private static void write(Song song, File cached, long size,
+			long modified, long checksum) {
+		File directory = cached.getParentFile();
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			return;
+		}
+		File temp = null;
+		try {
+			temp = File.createTempFile(cached.getName(), ".tmp", directory);
+			try (DataOutputStream out =
+					new DataOutputStream(new BufferedOutputStream(
+							new FileOutputStream(temp), 1 << 16))) {
+				out.writeInt(SongCache.MAGIC);
+				out.writeInt(SongCache.VERSION);
+				out.writeLong(size);
+				out.writeLong(modified);
+				out.writeLong(checksum);
+				song.write(out);
+			}
+			Files.move(temp.toPath(), cached.toPath(),
+					StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+			temp = null;
+		}
+		catch (IOException e) {
+			// caching is optional
+		}
+		finally {
+			if (temp != null) {
+				temp.delete();
+			}
+		}
+	}
+
+	/**
+	 * Calculates the CRC32 of the file contents.
+	 *
+	 * @param file the file to check
+	 * @return the checksum
+	 * @throws IOException if the file cannot be read
+	 */
+	static long checksum(File file) throws IOException {
+		CRC32 crc = new CRC32();
+		ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 16);
+		try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+				FileChannel channel = raf.getChannel()) {
+			while (channel.read(buffer) >= 0) {
+				buffer.flip();
+				crc.update(buffer);
+				buffer.clear();
+			}
+		}
+		return crc.getValue();
+	}
+}
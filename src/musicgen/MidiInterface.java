@@ -6,7 +6,7 @@ import java.awt.GridLayout;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
 import java.io.IOException;
-import java.util.LinkedList;
+import java.util.Random;
 
 import javax.sound.midi.InvalidMidiDataException;
 import javax.swing.JButton;
@@ -19,8 +19,7 @@ import javax.swing.JScrollPane;
 import javax.swing.JTextPane;
 
 import markov.Chain;
-import markov.Child;
-import markov.Link;
+import markov.Generator;
 import markov.SaveHandler;
 import midi.Song;
 
@@ -57,6 +56,11 @@ class MidiInterface {
 
 	Player player = new Player();
 	Pattern pat;
+	private final Random random = new Random();
+	/**
+	 * Walks the chain as it was last changed, or null to build it again
+	 */
+	private Generator generator;
 	private JButton btnLoadMidi;
 
 	private class LoadThread extends Thread {
@@ -99,7 +103,7 @@ class MidiInterface {
 
 			MidiInterface.this.lblStatus.setText("Status: idle");
 			MidiInterface.this.lblNumChains.setText("# Chains: "
-					+ MidiInterface.this.logicChain.getKnownWords().size());
+					+ MidiInterface.this.logicChain.size());
 		}
 	}
 
@@ -108,6 +112,7 @@ class MidiInterface {
 		public void run() {
 			MidiInterface.this.lblStatus.setText("Status: loading...");
 			JFileChooser filepicker = new JFileChooser();
+			filepicker.setFileSelectionMode(JFileChooser.FILES_AND_DIRECTORIES);
 			filepicker.showSaveDialog(new JDialog());
 			if (filepicker.getSelectedFile() == null) {
 				MidiInterface.this.postField
@@ -125,19 +130,34 @@ class MidiInterface {
 				return;
 			}
 
+			// learned apart and only added once the whole load worked
+			Chain learned = new Chain();
 			try {
-				Song song = SaveHandler.loadSong(filepicker.getSelectedFile());
-
+				String result;
+				if (filepicker.getSelectedFile().isDirectory()) {
+					int songs =
+							SaveHandler.learnSongs(learned,
+									filepicker.getSelectedFile());
+					result = "Learned " + songs + " songs";
+				}
+				else {
+					Song song =
+							SaveHandler.loadSong(filepicker.getSelectedFile());
+					if (song == null) {
+						throw new IOException("Not a valid song");
+					}
+					SaveHandler.learnSong(learned, song);
+					result = "Learned " + song.size() + " lines";
+				}
+				MidiInterface.this.logicChain.mergeFrom(learned);
+				MidiInterface.this.postField.setText(result);
 			}
 			catch (Exception e) {
 				MidiInterface.this.postField.setText("Invalid file");
-				MidiInterface.this.logicChain.clear();
-				MidiInterface.this.updateChains();
 			}
 
 			MidiInterface.this.lblStatus.setText("Status: idle");
-			MidiInterface.this.lblNumChains.setText("# Chains: "
-					+ MidiInterface.this.logicChain.getKnownWords().size());
+			MidiInterface.this.updateChains();
 		}
 	}
 
@@ -224,11 +244,15 @@ class MidiInterface {
 	}
 
 	/**
-	 * Updates the label for number of chains
+	 * Updates the label for number of chains. This must be called after the
+	 * chain is loaded, cleared or learned into, so the next song is generated
+	 * from the chain as it is now.
 	 */
 	public void updateChains() {
-		this.lblNumChains.setText("# Chains: "
-				+ this.logicChain.getKnownWords().size());
+		synchronized (this) {
+			this.generator = null;
+		}
+		this.lblNumChains.setText("# Chains: " + this.logicChain.size());
 	}
 
 	/**
@@ -349,72 +373,22 @@ class MidiInterface {
 	}
 
 	/**
-	 * Returns a random string based on the gathered data.
+	 * Returns a random string based on the gathered data, a random note
+	 * followed by the given number of notes picked with the chain. The
+	 * transition matrix is only built again once the chain has changed, see
+	 * {@link #updateChains()}.
 	 *
-	 * @param length how many notes the given string should be
-	 * @return the newly created post
+	 * @param length how many notes to add after the first
+	 * @return the newly created post, empty if no note has a next note
 	 */
-	public String generateSong(int length) {
-		String ret = "";
-		String tmp = this.getRandomNote();
-		ret += tmp;
-
-		for (int i = 0; i < length; ++i) {
-			if (this.logicChain.hasWord(tmp)) {
-				for (Link link : this.logicChain.getKnownWords()) {
-					if (link.getWord().equals(tmp)) {
-						tmp = this.getRandomChild(link);
-						ret += " " + tmp;
-					}
-				}
-			}
-			else {
-				tmp = this.getRandomNote();
-				ret += " " + tmp;
-			}
-		}
-		return ret;
-	}
-
-	/**
-	 * Returns a weighted random string in the list. A child with higher
-	 * occurrences return more often. This is not efficient.
-	 *
-	 * @param link the link to return children for
-	 *
-	 * @return a random child
-	 */
-	private String getRandomChild(Link link) {
-		LinkedList<String> strings = new LinkedList<>();
-		int i;
-		for (Child child : link.getList()) {
-			for (i = 0; i < child.getOccuranceCount(); ++i) {
-				strings.add(child.getWord());
-			}
-		}
-
-		String str = strings.get((int) (Math.random() * strings.size()));
-
-		strings.clear();
-		return str;
-	}
-
-	/**
-	 * Returns a random note or space if there was an error.
-	 *
-	 * @return a note
-	 */
-	private String getRandomNote() {
-		try {
-			int index =
-					(int) (Math.random() * this.logicChain.getKnownWords()
-							.size());
-			return this.logicChain.getKnownWords().get(index).getWord();
-		}
-		catch (Exception e) {
-			e.printStackTrace(System.err);
-			return " ";
+	public synchronized String generateSong(int length) {
+		if (this.generator == null) {
+			this.generator = new Generator(this.logicChain, this.random);
 		}
+		this.generator.reset();
+		StringBuilder song = new StringBuilder();
+		this.generator.generate(length + 1, song);
+		return song.toString();
 	}
 
 }